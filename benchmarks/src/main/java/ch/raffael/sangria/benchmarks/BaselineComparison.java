@@ -0,0 +1,217 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Compares JMH results in CSV format (`-rf csv`) to a baseline and fails if a benchmark
+ * got slower or allocates more by more than a threshold. Only the primary scores and
+ * `gc.alloc.rate.norm` of the GC profiler are compared, the other secondary results
+ * depend too much on the machine and the run.
+ *
+ * A benchmark only counts as regressed if the difference is beyond the errors of both
+ * scores, too. Benchmarks missing on either side are reported, but don't fail.
+ *
+ * Usage: `BaselineComparison <baseline.csv> <results.csv> [<threshold percent>]`
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public final class BaselineComparison {
+
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+    /**
+     * Allocation differences below this many bytes per operation are measuring noise,
+     * the smallest object is larger.
+     */
+    private static final double MIN_ALLOCATION_DIFFERENCE = 8;
+
+    private BaselineComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if ( args.length < 2 || args.length > 3 ) {
+            System.err.println("Usage: BaselineComparison <baseline.csv> <results.csv> [<threshold percent>]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.1;
+        Map<String, Score> baseline = read(Paths.get(args[0]));
+        Map<String, Score> results = read(Paths.get(args[1]));
+        int regressions = 0;
+        for ( Map.Entry<String, Score> entry : results.entrySet() ) {
+            Score before = baseline.get(entry.getKey());
+            Score after = entry.getValue();
+            if ( before == null ) {
+                System.out.printf("NEW        %s: %s%n", entry.getKey(), after);
+                continue;
+            }
+            double change = (after.score - before.score) / before.score;
+            boolean worse = after.higherIsBetter ? change < -threshold : change > threshold;
+            boolean better = after.higherIsBetter ? change > threshold : change < -threshold;
+            double difference = Math.abs(after.score - before.score);
+            boolean significant = difference > before.error + after.error
+                    && (!after.unit.equals("B/op") || difference >= MIN_ALLOCATION_DIFFERENCE);
+            String verdict;
+            if ( worse && significant ) {
+                verdict = "REGRESSED";
+                regressions++;
+            }
+            else if ( better && significant ) {
+                verdict = "IMPROVED";
+            }
+            else {
+                verdict = "OK";
+            }
+            System.out.printf("%-10s %s: %s -> %s (%+.1f%%)%n", verdict, entry.getKey(), before, after, change * 100);
+        }
+        for ( String key : baseline.keySet() ) {
+            if ( !results.containsKey(key) ) {
+                System.out.printf("MISSING    %s%n", key);
+            }
+        }
+        if ( regressions > 0 ) {
+            System.out.printf("%d regression(s) beyond %.0f%%%n", regressions, threshold * 100);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Read the compared scores by benchmark name and parameters.
+     */
+    static Map<String, Score> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if ( lines.isEmpty() ) {
+            throw new IOException(file + ": Empty");
+        }
+        List<String> header = split(lines.get(0));
+        int benchmark = column(file, header, "Benchmark");
+        int mode = column(file, header, "Mode");
+        int score = column(file, header, "Score");
+        int error = -1;
+        int unit = column(file, header, "Unit");
+        List<Integer> params = new ArrayList<>();
+        for ( int i = 0; i < header.size(); i++ ) {
+            if ( header.get(i).startsWith("Score Error") ) {
+                error = i;
+            }
+            else if ( header.get(i).startsWith("Param: ") ) {
+                params.add(i);
+            }
+        }
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for ( String line : lines.subList(1, lines.size()) ) {
+            if ( line.trim().isEmpty() ) {
+                continue;
+            }
+            List<String> row = split(line);
+            String name = row.get(benchmark);
+            int secondary = name.indexOf(':');
+            if ( secondary >= 0 && !name.endsWith(ALLOCATION) ) {
+                continue;
+            }
+            // JMH 1.9 prefixes secondary results with a middle dot
+            name = name.replace(":\u00b7", ":");
+            StringBuilder key = new StringBuilder(name);
+            for ( int param : params ) {
+                if ( param < row.size() && !row.get(param).isEmpty() ) {
+                    key.append(' ').append(header.get(param).substring("Param: ".length())).append('=').append(row.get(param));
+                }
+            }
+            boolean higherIsBetter = secondary < 0 && row.get(mode).equals("thrpt");
+            scores.put(key.toString(), new Score(
+                    parse(row.get(score)), error < 0 ? 0 : parse(row.get(error)), row.get(unit), higherIsBetter));
+        }
+        return scores;
+    }
+
+    private static int column(Path file, List<String> header, String name) throws IOException {
+        int index = header.indexOf(name);
+        if ( index < 0 ) {
+            throw new IOException(file + ": No column '" + name + "'");
+        }
+        return index;
+    }
+
+    private static double parse(String value) {
+        double result = Double.parseDouble(value);
+        return Double.isNaN(result) ? 0 : result;
+    }
+
+    /**
+     * Split a line of JMH's CSV output. JMH quotes the strings, but never has quotes
+     * within values.
+     */
+    private static List<String> split(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for ( int i = 0; i < line.length(); i++ ) {
+            char c = line.charAt(i);
+            if ( c == '"' ) {
+                quoted = !quoted;
+            }
+            else if ( c == ',' && !quoted ) {
+                values.add(value.toString());
+                value.setLength(0);
+            }
+            else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    static final class Score {
+
+        final double score;
+        final double error;
+        final String unit;
+        final boolean higherIsBetter;
+
+        Score(double score, double error, String unit, boolean higherIsBetter) {
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f +- %.3f %s", score, error, unit);
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.benchmarks.eventbus;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.raffael.sangria.eventbus.EventBus;
+import ch.raffael.sangria.eventbus.EventBusBuilder;
+import ch.raffael.sangria.eventbus.EventCompletion;
+import ch.raffael.sangria.eventbus.Subscribe;
+
+
+/**
+ * Throughput of handlers that block (simulated I/O) depending on the executor backend.
+ * The `virtual` backend requires Java 21 or later.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockingHandlerBenchmark {
+
+    @Param({ "pool", "forkJoin", "cachedPool", "virtual" })
+    public String executor;
+
+    @Param({ "100" })
+    public int subscribers;
+
+    @Param({ "1" })
+    public long blockMillis;
+
+    private EventBus eventBus;
+
+    @Setup
+    public void setUp() {
+        EventBusBuilder builder = EventBus.newParallelEventBus().named("BlockingHandlerBenchmark");
+        switch ( executor ) {
+            case "pool":
+                break;
+            case "forkJoin":
+                builder.forkJoin();
+                break;
+            case "cachedPool":
+                builder.executor(Executors.newCachedThreadPool());
+                break;
+            case "virtual":
+                builder.virtualThreads();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown executor: " + executor);
+        }
+        eventBus = builder.build();
+        for ( int i = 0; i < subscribers; i++ ) {
+            eventBus.subscribe(new BlockingReceiver(blockMillis));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventBus.shutdownNow().awaitUninterruptibly();
+    }
+
+    /**
+     * One operation is one event delivered to all blocking subscribers.
+     */
+    @Benchmark
+    public EventCompletion<?> post() {
+        return eventBus.post(new BenchmarkEvents.Blocking()).awaitUninterruptibly();
+    }
+
+    public static class BlockingReceiver {
+
+        private final long blockMillis;
+
+        public BlockingReceiver(long blockMillis) {
+            this.blockMillis = blockMillis;
+        }
+
+        @Subscribe
+        public void blocking(BenchmarkEvents.Blocking event) throws InterruptedException {
+            Thread.sleep(blockMillis);
+        }
+
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.benchmarks.eventbus;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.raffael.sangria.eventbus.EventBus;
+import ch.raffael.sangria.eventbus.EventBusBuilder;
+import ch.raffael.sangria.eventbus.EventCompletion;
+
+
+/**
+ * Scaling of the shared thread pool vs. work-stealing lanes with the number of workers.
+ * Run with `-p workers=1,2,4,...` up to the number of cores of the machine.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class DispatchScalingBenchmark {
+
+    static final int BATCH = 100;
+
+    @Param({ "pool", "lanes" })
+    public String dispatch;
+
+    @Param({ "1", "2", "4", "8" })
+    public int workers;
+
+    @Param({ "64" })
+    public int subscribers;
+
+    private EventBus eventBus;
+
+    @Setup
+    public void setUp() {
+        EventBusBuilder builder = EventBus.newParallelEventBus().named("DispatchScalingBenchmark");
+        switch ( dispatch ) {
+            case "pool":
+                builder.fixedPoolSize(workers);
+                break;
+            case "lanes":
+                builder.workStealingLanes(workers);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown dispatch: " + dispatch);
+        }
+        eventBus = builder.build();
+        for ( int i = 0; i < subscribers; i++ ) {
+            eventBus.subscribe(new Receiver());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventBus.shutdownNow().awaitUninterruptibly();
+    }
+
+    /**
+     * One operation is one event delivered to all subscribers.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public EventCompletion<?> post() {
+        EventCompletion<?> last = null;
+        for ( int i = 0; i < BATCH; i++ ) {
+            last = eventBus.post(new BenchmarkEvents.Sync());
+        }
+        return last.awaitUninterruptibly();
+    }
+
+}
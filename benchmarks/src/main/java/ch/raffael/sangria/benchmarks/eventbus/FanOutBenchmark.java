@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.benchmarks.eventbus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.raffael.sangria.eventbus.EventBus;
+import ch.raffael.sangria.eventbus.EventCompletion;
+import ch.raffael.sangria.eventbus.Subscribe;
+
+
+/**
+ * Post and await round trips depending on the number of subscribers receiving the event
+ * (fan-out), the number of subscribers that aren't interested in it and whether the
+ * subscribers are subscribed weakly. Run with `-prof gc` to see the allocation per post.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    /**
+     * The number of subscribers receiving the event.
+     */
+    @Param({ "1", "8", "64" })
+    public int receivers;
+
+    /**
+     * The number of subscribers handling other events.
+     */
+    @Param({ "0", "1000" })
+    public int bystanders;
+
+    @Param({ "strong", "weak" })
+    public String subscription;
+
+    private EventBus eventBus;
+    /**
+     * Keeps weak subscribers alive.
+     */
+    private final List<Object> subscribers = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        eventBus = EventBus.newParallelEventBus().named("FanOutBenchmark").build();
+        for ( int i = 0; i < receivers; i++ ) {
+            subscribe(new Receiver());
+        }
+        for ( int i = 0; i < bystanders; i++ ) {
+            subscribe(new Bystander());
+        }
+    }
+
+    private void subscribe(Object subscriber) {
+        subscribers.add(subscriber);
+        if ( subscription.equals("weak") ) {
+            eventBus.subscribeWeakly(subscriber);
+        }
+        else {
+            eventBus.subscribe(subscriber);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventBus.shutdownNow().awaitUninterruptibly();
+        subscribers.clear();
+    }
+
+    @Benchmark
+    public EventCompletion<?> postAndAwait() {
+        return eventBus.post(new BenchmarkEvents.Sync()).awaitUninterruptibly();
+    }
+
+    @Benchmark
+    public EventCompletion<?> postAsyncAndAwait() {
+        return eventBus.post(new BenchmarkEvents.Async()).awaitUninterruptibly();
+    }
+
+    public static class Bystander {
+        @Subscribe
+        public void ignored(BenchmarkEvents.Ignored event) {
+        }
+    }
+
+}
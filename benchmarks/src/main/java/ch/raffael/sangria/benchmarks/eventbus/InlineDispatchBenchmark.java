@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.benchmarks.eventbus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.raffael.sangria.eventbus.EventBus;
+import ch.raffael.sangria.eventbus.EventBusBuilder;
+import ch.raffael.sangria.eventbus.EventCompletion;
+import ch.raffael.sangria.eventbus.Subscribe;
+
+
+/**
+ * Posting to a subscriber with cheap handlers on the thread pool compared to running
+ * them on the posting thread.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InlineDispatchBenchmark {
+
+    static final int BATCH = 1000;
+
+    /**
+     * `pooled`: a single worker thread, `inline`: {@link EventBusBuilder#inline()},
+     * `inlineCheap`: {@link EventBusBuilder#inlineCheapHandlers()} with a single worker.
+     */
+    @Param({ "pooled", "inline", "inlineCheap" })
+    public String dispatch;
+
+    private EventBus eventBus;
+
+    @Setup
+    public void setUp() {
+        EventBusBuilder builder = EventBus.newParallelEventBus().named("InlineDispatchBenchmark").fixedPoolSize(1);
+        switch ( dispatch ) {
+            case "pooled":
+                break;
+            case "inline":
+                builder.inline();
+                break;
+            case "inlineCheap":
+                builder.inlineCheapHandlers();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown dispatch: " + dispatch);
+        }
+        eventBus = builder.build();
+        eventBus.subscribe(new CheapReceiver());
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventBus.shutdownNow().awaitUninterruptibly();
+    }
+
+    @Benchmark
+    public EventCompletion<?> postAndAwait() {
+        return eventBus.post(new BenchmarkEvents.Sync()).awaitUninterruptibly();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public EventCompletion<?> postBatch() {
+        EventCompletion<?> last = null;
+        for ( int i = 0; i < BATCH; i++ ) {
+            last = eventBus.post(new BenchmarkEvents.Sync());
+        }
+        return last.awaitUninterruptibly();
+    }
+
+    @Benchmark
+    public EventCompletion<?> postAsyncAndAwait() {
+        return eventBus.post(new BenchmarkEvents.Async()).awaitUninterruptibly();
+    }
+
+    public static class CheapReceiver {
+
+        private final AtomicLong count = new AtomicLong();
+
+        @Subscribe(cheap = true)
+        public void sync(BenchmarkEvents.Sync event) {
+            count.incrementAndGet();
+        }
+
+        @Subscribe(cheap = true)
+        public void async(BenchmarkEvents.Async event) {
+            count.incrementAndGet();
+        }
+
+    }
+
+}
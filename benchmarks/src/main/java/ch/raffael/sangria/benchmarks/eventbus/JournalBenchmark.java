@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.benchmarks.eventbus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.raffael.sangria.eventbus.EventBus;
+import ch.raffael.sangria.eventbus.EventCompletion;
+import ch.raffael.sangria.eventbus.EventSerializer;
+
+
+/**
+ * Cost of journaling durable events: posting {@link BenchmarkEvents.Durable durable}
+ * events compared to plain ones on the same journaled event bus.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+
+    static final int BATCH = 1000;
+
+    /**
+     * `java` for Java serialization, `raw` for a serializer writing a fixed 16 bytes,
+     * i.e. the cost of the journal itself.
+     */
+    @Param({ "java", "raw" })
+    public String serializer;
+
+    private Path directory;
+    private EventBus eventBus;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("JournalBenchmark");
+        eventBus = EventBus.newParallelEventBus().named("JournalBenchmark").fixedPoolSize(1)
+                .journal(directory, serializer.equals("raw") ? new RawSerializer() : EventSerializer.javaSerialization())
+                .build();
+        eventBus.subscribe(new Receiver());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        eventBus.shutdown().awaitUninterruptibly();
+        try ( Stream<Path> files = Files.list(directory) ) {
+            for ( Path file : (Iterable<Path>)files::iterator ) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public EventCompletion<?> postBatch() {
+        EventCompletion<?> last = null;
+        for ( int i = 0; i < BATCH; i++ ) {
+            last = eventBus.post(new BenchmarkEvents.Sync());
+        }
+        return last.awaitUninterruptibly();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public EventCompletion<?> postDurableBatch() {
+        EventCompletion<?> last = null;
+        for ( int i = 0; i < BATCH; i++ ) {
+            last = eventBus.post(new BenchmarkEvents.Durable());
+        }
+        return last.awaitUninterruptibly();
+    }
+
+    private static final class RawSerializer implements EventSerializer {
+        private static final byte[] BYTES = new byte[16];
+        @Override
+        public byte[] serialize(Object event) {
+            return BYTES;
+        }
+        @Override
+        public Object deserialize(byte[] bytes) {
+            return new BenchmarkEvents.Durable();
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.benchmarks.eventbus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.raffael.sangria.eventbus.EventBus;
+import ch.raffael.sangria.eventbus.EventBusBuilder;
+import ch.raffael.sangria.eventbus.EventCompletion;
+
+
+/**
+ * Cost of posting an event to a single subscriber with a single handler. Run with
+ * `-prof gc` to see the allocation per post (`gc.alloc.rate.norm`).
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostBenchmark {
+
+    static final int BATCH = 1000;
+
+    /**
+     * Whether to record queue wait and handler latencies.
+     */
+    @Param({ "false", "true" })
+    public boolean recordLatencies;
+
+    private EventBus eventBus;
+
+    @Setup
+    public void setUp() {
+        EventBusBuilder builder = EventBus.newParallelEventBus().named("PostBenchmark").fixedPoolSize(1);
+        if ( recordLatencies ) {
+            builder.recordLatencies();
+        }
+        eventBus = builder.build();
+        eventBus.subscribe(new Receiver());
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventBus.shutdownNow().awaitUninterruptibly();
+    }
+
+    @Benchmark
+    public EventCompletion<?> postAndAwait() {
+        return eventBus.post(new BenchmarkEvents.Sync()).awaitUninterruptibly();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public EventCompletion<?> postBatch() {
+        EventCompletion<?> last = null;
+        for ( int i = 0; i < BATCH; i++ ) {
+            last = eventBus.post(new BenchmarkEvents.Sync());
+        }
+        return last.awaitUninterruptibly();
+    }
+
+    /**
+     * Like {@link #postBatch()}, but without completion tracking. The subscriber handles
+     * its events in order, so awaiting a last posted event awaits all fired events.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public EventCompletion<?> fireBatch() {
+        for ( int i = 0; i < BATCH - 1; i++ ) {
+            eventBus.fire(new BenchmarkEvents.Sync());
+        }
+        return eventBus.post(new BenchmarkEvents.Sync()).awaitUninterruptibly();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public EventCompletion<?> postAllBatch() {
+        List<Object> events = new ArrayList<>(BATCH);
+        for ( int i = 0; i < BATCH; i++ ) {
+            events.add(new BenchmarkEvents.Sync());
+        }
+        return eventBus.postAll(events).awaitUninterruptibly();
+    }
+
+    @Benchmark
+    public EventCompletion<?> postAsyncAndAwait() {
+        return eventBus.post(new BenchmarkEvents.Async()).awaitUninterruptibly();
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.benchmarks.eventbus;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.raffael.sangria.eventbus.Event;
+import ch.raffael.sangria.eventbus.EventBus;
+import ch.raffael.sangria.eventbus.EventBusBuilder;
+import ch.raffael.sangria.eventbus.EventCompletion;
+
+
+/**
+ * Cost of prioritized dispatch through the executor queue: plain FIFO, priority lanes and
+ * a heap ordered by a comparator that looks up an annotation on every comparison, like
+ * `prioritized()` used to.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriorityDispatchBenchmark {
+
+    static final int BATCH = 1000;
+
+    @Param({ "fifo", "lanes", "comparator" })
+    public String queue;
+
+    @Param({ "16" })
+    public int subscribers;
+
+    private EventBus eventBus;
+
+    @Setup
+    public void setUp() {
+        EventBusBuilder builder = EventBus.newParallelEventBus().named("PriorityDispatchBenchmark");
+        switch ( queue ) {
+            case "fifo":
+                break;
+            case "lanes":
+                builder.prioritized();
+                break;
+            case "comparator":
+                builder.addEventComparator(Comparator.comparingInt(task -> {
+                    Event annotation = task.getClass().getAnnotation(Event.class);
+                    return annotation == null ? Event.DEFAULT_PRIORITY : annotation.priority();
+                }));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown queue: " + queue);
+        }
+        eventBus = builder.build();
+        for ( int i = 0; i < subscribers; i++ ) {
+            eventBus.subscribe(new Receiver());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventBus.shutdownNow().awaitUninterruptibly();
+    }
+
+    /**
+     * One operation is one asynchronous event delivered to all subscribers, every other
+     * event has a higher priority.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public EventCompletion<?> postBatch() {
+        List<EventCompletion<?>> completions = new ArrayList<>(BATCH);
+        for ( int i = 0; i < BATCH; i++ ) {
+            completions.add(eventBus.post(i % 2 == 0 ? new BenchmarkEvents.Async() : new BenchmarkEvents.UrgentAsync()));
+        }
+        EventCompletion<?> last = null;
+        for ( EventCompletion<?> completion : completions ) {
+            last = completion.awaitUninterruptibly();
+        }
+        return last;
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The view of a child bus on the executor of its parent. Tasks run on the parent's
+ * workers, but the view keeps track of its own pending tasks, so a child bus can be
+ * shut down and awaited without affecting the pool it shares with its parent and
+ * siblings.
+ *
+ * `shutdownNow()` can't take the pending tasks out of the shared queue, they're
+ * cancelled instead of run when a worker picks them up.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class ChildExecutor extends AbstractExecutorService implements AffinityExecutor {
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+
+    private final ExecutorService parent;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Object terminationLock = new Object();
+    private volatile int runState = RUNNING;
+
+    ChildExecutor(ExecutorService parent) {
+        this.parent = parent;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        Task child = begin(task);
+        try {
+            parent.execute(child);
+        }
+        catch ( RejectedExecutionException e ) {
+            end();
+            throw e;
+        }
+    }
+
+    /**
+     * Pin the task if the parent executor supports affinity, otherwise just execute it.
+     */
+    @Override
+    public void execute(Runnable task, int affinity) {
+        if ( !(parent instanceof AffinityExecutor) ) {
+            execute(task);
+            return;
+        }
+        Task child = begin(task);
+        try {
+            ((AffinityExecutor)parent).execute(child, affinity);
+        }
+        catch ( RejectedExecutionException e ) {
+            end();
+            throw e;
+        }
+    }
+
+    private Task begin(Runnable task) {
+        if ( task == null ) {
+            throw new NullPointerException();
+        }
+        pending.incrementAndGet();
+        if ( runState != RUNNING ) {
+            end();
+            throw new RejectedExecutionException("Executor shut down: " + task);
+        }
+        return new Task(task);
+    }
+
+    private void end() {
+        if ( pending.decrementAndGet() == 0 && runState != RUNNING ) {
+            synchronized ( terminationLock ) {
+                terminationLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if ( runState == RUNNING ) {
+            runState = SHUTDOWN;
+        }
+        signalIfTerminated();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        runState = STOP;
+        signalIfTerminated();
+        return Collections.emptyList();
+    }
+
+    private void signalIfTerminated() {
+        if ( pending.get() == 0 ) {
+            synchronized ( terminationLock ) {
+                terminationLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return runState != RUNNING || parent.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return (runState != RUNNING && pending.get() == 0) || parent.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized ( terminationLock ) {
+            while ( !isTerminated() ) {
+                long remaining = deadline - System.nanoTime();
+                if ( remaining <= 0 ) {
+                    return false;
+                }
+                if ( parent.isShutdown() ) {
+                    // the parent doesn't notify us, let it do the waiting
+                    terminationLock.wait(Math.min(TimeUnit.NANOSECONDS.toMillis(remaining) + 1, 10));
+                }
+                else {
+                    TimeUnit.NANOSECONDS.timedWait(terminationLock, remaining);
+                }
+            }
+            return true;
+        }
+    }
+
+    private final class Task implements Runnable, Cancellable, Prioritized {
+
+        private final Runnable task;
+
+        private Task(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if ( runState == STOP ) {
+                    cancelTask(null);
+                }
+                else {
+                    task.run();
+                }
+            }
+            finally {
+                end();
+            }
+        }
+
+        @Override
+        public void cancel(Throwable exception) {
+            try {
+                cancelTask(exception);
+            }
+            finally {
+                end();
+            }
+        }
+
+        private void cancelTask(Throwable exception) {
+            if ( task instanceof Cancellable ) {
+                ((Cancellable)task).cancel(exception);
+            }
+        }
+
+        @Override
+        public int priority() {
+            // like the parent's queue treats tasks that aren't prioritized: lowest priority
+            return task instanceof Prioritized ? ((Prioritized)task).priority() : Integer.MIN_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+/**
+ * Uses the {@link CompiledHandlers} generated by the {@link SubscribeProcessor} if
+ * available, falls back to another factory (usually the {@link HandlerSynthesizer})
+ * otherwise.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class CompiledHandlerFactory extends ReflectiveHandlerFactory {
+
+    private final ReflectiveHandlerFactory fallback;
+
+    CompiledHandlerFactory(ReflectiveHandlerFactory fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    HandlerHolder[] handlers(Object subscriber) {
+        CompiledHandlers<?> compiled = CompiledHandlers.of(subscriber.getClass());
+        if ( compiled != null ) {
+            return compiled.handlers(subscriber);
+        }
+        else {
+            return fallback.handlers(subscriber);
+        }
+    }
+
+}
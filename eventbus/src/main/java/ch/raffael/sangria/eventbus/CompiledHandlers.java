@@ -0,0 +1,167 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+import java.lang.ref.WeakReference;
+
+import org.slf4j.Logger;
+
+import ch.raffael.sangria.logging.Logging;
+
+
+/**
+ * The handlers of a subscriber class, generated at compile time by the
+ * {@link SubscribeProcessor} as `<SubscriberClass>$$EventHandlers`. The event bus uses
+ * them instead of synthesizing them at runtime using the {@link HandlerSynthesizer}.
+ * Don't extend this class manually.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public abstract class CompiledHandlers<T> {
+
+    static final String CLASS_NAME_SUFFIX = "$$EventHandlers";
+
+    private static final Logger log = Logging.logger();
+
+    private static final ClassValue<CompiledHandlers<?>> COMPILED = new ClassValue<CompiledHandlers<?>>() {
+        @Override
+        protected CompiledHandlers<?> computeValue(Class<?> type) {
+            return load(type);
+        }
+    };
+
+    private final Class<T> subscriberClass;
+    private final Class<?>[] eventTypes;
+    private final String[] names;
+    private final boolean[] cheap;
+
+    /**
+     * @param subscriberClass The subscriber class.
+     * @param eventTypes      The event type of each handler method.
+     * @param names           The handler methods as
+     *                        `declaringClass#method(ParameterType, ...)`.
+     */
+    protected CompiledHandlers(Class<T> subscriberClass, Class<?>[] eventTypes, String[] names) {
+        this(subscriberClass, eventTypes, names, new boolean[names.length]);
+    }
+
+    /**
+     * @param subscriberClass The subscriber class.
+     * @param eventTypes      The event type of each handler method.
+     * @param names           The handler methods as
+     *                        `declaringClass#method(ParameterType, ...)`.
+     * @param cheap           Whether each handler method is {@link Subscribe#cheap() cheap}.
+     */
+    protected CompiledHandlers(Class<T> subscriberClass, Class<?>[] eventTypes, String[] names, boolean[] cheap) {
+        if ( eventTypes.length != names.length || eventTypes.length != cheap.length ) {
+            throw new IllegalArgumentException("eventTypes.length(" + eventTypes.length + "), names.length(" + names.length
+                    + ") and cheap.length(" + cheap.length + ") differ");
+        }
+        this.subscriberClass = subscriberClass;
+        this.eventTypes = eventTypes;
+        this.names = names;
+        this.cheap = cheap;
+    }
+
+    /**
+     * Call the handler method with the given index.
+     */
+    protected abstract void handleEvent(T subscriber, int index, EventBus eventBus, Object event) throws Exception;
+
+    /**
+     * @return The compiled handlers of the given class, `null` if there are none.
+     */
+    static CompiledHandlers<?> of(Class<?> subscriberClass) {
+        return COMPILED.get(subscriberClass);
+    }
+
+    private static CompiledHandlers<?> load(Class<?> subscriberClass) {
+        if ( subscriberClass.isAnonymousClass() || subscriberClass.isLocalClass() || subscriberClass.isSynthetic() ) {
+            return null;
+        }
+        Class<?> compiledClass;
+        try {
+            compiledClass = Class.forName(subscriberClass.getName() + CLASS_NAME_SUFFIX, true, subscriberClass.getClassLoader());
+        }
+        catch ( ClassNotFoundException | LinkageError e ) {
+            return null;
+        }
+        if ( !CompiledHandlers.class.isAssignableFrom(compiledClass) ) {
+            log.warn("{} isn't a {}, synthesizing handlers at runtime", compiledClass, CompiledHandlers.class.getSimpleName());
+            return null;
+        }
+        CompiledHandlers<?> compiled;
+        try {
+            compiled = (CompiledHandlers<?>)compiledClass.getConstructor().newInstance();
+        }
+        catch ( ReflectiveOperationException | RuntimeException e ) {
+            log.warn("Cannot instantiate {}, synthesizing handlers at runtime", compiledClass, e);
+            return null;
+        }
+        if ( compiled.subscriberClass != subscriberClass ) {
+            log.warn("{} handles {} instead of {}, synthesizing handlers at runtime", compiledClass, compiled.subscriberClass, subscriberClass);
+            return null;
+        }
+        return compiled;
+    }
+
+    HandlerHolder[] handlers(Object subscriber) {
+        // like synthesized handlers, only reference the subscriber weakly
+        WeakReference<T> reference = new WeakReference<>(subscriberClass.cast(subscriber));
+        HandlerHolder[] handlers = new HandlerHolder[eventTypes.length];
+        for ( int i = 0; i < handlers.length; i++ ) {
+            handlers[i] = new HandlerHolder(eventTypes[i], new Handler<>(this, reference, i), names[i], cheap[i]);
+        }
+        return handlers;
+    }
+
+    private static final class Handler<T> implements EventBus.Handler<Object> {
+
+        private final CompiledHandlers<T> compiled;
+        private final WeakReference<T> subscriber;
+        private final int index;
+
+        private Handler(CompiledHandlers<T> compiled, WeakReference<T> subscriber, int index) {
+            this.compiled = compiled;
+            this.subscriber = subscriber;
+            this.index = index;
+        }
+
+        @Override
+        public void handleEvent(EventBus eventBus, Object event) throws Exception {
+            T subscriber = this.subscriber.get();
+            if ( subscriber != null ) {
+                compiled.handleEvent(subscriber, index, eventBus, event);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "CompiledHandlers.Handler{" + compiled.names[index] + "}";
+        }
+    }
+
+}
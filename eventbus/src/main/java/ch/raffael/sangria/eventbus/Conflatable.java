@@ -0,0 +1,51 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+/**
+ * An event that makes earlier events with the same key obsolete, e.g. a price update
+ * for a given instrument.
+ *
+ * If a subscriber still has an event of the same class with an equal key in its
+ * mailbox that hasn't started yet, the queued event is dropped in favour of the new
+ * one. The invocations of the dropped event count as
+ * {@link EventCompletion#getSupersededInvocations() superseded}, they don't report
+ * an exception. To conflate all events of a class, annotate it with
+ * {@link Event#conflate() @Event(conflate = true)} instead.
+ *
+ * Conflation only applies to ordered deliveries, {@link Event#async() asynchronous}
+ * events are never conflated.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public interface Conflatable {
+
+    /**
+     * The key of this event, it must implement `equals()` and `hashCode()`.
+     */
+    Object conflationKey();
+
+}
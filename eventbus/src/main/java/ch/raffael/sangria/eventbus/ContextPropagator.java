@@ -0,0 +1,62 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+/**
+ * Carries thread-bound context like logging or tracing context from the thread posting
+ * an event to the threads running its handlers.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ * @see EventBusBuilder#propagateContext(ContextPropagator)
+ */
+public interface ContextPropagator {
+
+    /**
+     * Capture the context of the posting thread.
+     *
+     * @return The captured context, `null` if there's nothing to propagate.
+     */
+    Context capture();
+
+    interface Context {
+
+        /**
+         * Apply the context to the current thread, which is about to run a handler.
+         *
+         * @return A scope restoring the thread's previous context when closed.
+         */
+        Scope apply();
+
+    }
+
+    interface Scope extends AutoCloseable {
+
+        @Override
+        void close();
+
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.eventbus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ch.raffael.sangria.libs.guava.collect.ImmutableSet;
+
+import ch.raffael.sangria.dynamic.Reflection;
+
+
+/**
+ * Maps concrete event classes to the subscribers and subscriptions interested in them.
+ *
+ * Entries are created lazily per event class and removed whenever a subscriber handling
+ * one of the event class' supertypes is added or removed. They will be recomputed on the
+ * next post.
+ *
+ * The index is a plain map owned by the bus rather than a `ClassValue`: values of a
+ * `ClassValue` live as long as the event class, so they'd keep the bus reachable.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class DispatchIndex {
+
+    private static final Target[] NO_TARGETS = new Target[0];
+
+    private final Collection<Subscriber> subscribers;
+    private final ConcurrentMap<Class<?>, Entry> entries = new ConcurrentHashMap<>();
+
+    DispatchIndex(Collection<Subscriber> subscribers) {
+        this.subscribers = subscribers;
+    }
+
+    Target[] targets(Class<?> eventClass) {
+        return entries.computeIfAbsent(eventClass, Entry::new).targets(subscribers);
+    }
+
+    void invalidate(Subscriber subscriber) {
+        Set<Class<?>> eventTypes = subscriber.eventTypes();
+        entries.values().removeIf(entry -> {
+            for ( Class<?> eventType : eventTypes ) {
+                if ( entry.hierarchy.contains(eventType) ) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    private static final class Entry {
+
+        private final Class<?> eventClass;
+        private final Set<Class<?>> hierarchy;
+        private volatile Target[] targets = null;
+
+        private Entry(Class<?> eventClass) {
+            this.eventClass = eventClass;
+            hierarchy = ImmutableSet.copyOf(Reflection.hierarchy(eventClass));
+        }
+
+        private Target[] targets(Collection<Subscriber> subscribers) {
+            Target[] current = targets;
+            if ( current == null ) {
+                synchronized ( this ) {
+                    current = targets;
+                    if ( current == null ) {
+                        current = compute(subscribers);
+                        targets = current;
+                    }
+                }
+            }
+            return current;
+        }
+
+        private Target[] compute(Collection<Subscriber> subscribers) {
+            List<Target> result = new ArrayList<>();
+            for ( Subscriber subscriber : subscribers ) {
+                Subscriber.Subscription[] subscriptions = subscriber.subscriptionsFor(eventClass);
+                if ( subscriptions.length > 0 ) {
+                    result.add(new Target(subscriber, subscriptions));
+                }
+            }
+            return result.isEmpty() ? NO_TARGETS : result.toArray(new Target[result.size()]);
+        }
+
+        @Override
+        public String toString() {
+            return "DispatchIndex.Entry{" + eventClass.getName() + "}";
+        }
+    }
+
+    static final class Target {
+
+        final Subscriber subscriber;
+        final Subscriber.Subscription[] subscriptions;
+
+        private Target(Subscriber subscriber, Subscriber.Subscription[] subscriptions) {
+            this.subscriber = subscriber;
+            this.subscriptions = subscriptions;
+        }
+
+        @Override
+        public String toString() {
+            return "DispatchIndex.Target{" + subscriber + "}";
+        }
+    }
+
+}
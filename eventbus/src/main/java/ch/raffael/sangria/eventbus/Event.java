@@ -49,8 +49,28 @@ public @interface Event {
 
     int DEFAULT_PRIORITY = 0;
 
+    /**
+     * Events with a higher priority are dispatched first if the executor is backed up.
+     * Only effective if the event bus has been built with
+     * {@link EventBusBuilder#prioritized() prioritized()}.
+     */
     int priority() default DEFAULT_PRIORITY;
 
     boolean async() default false;
 
+    /**
+     * Conflate the events of this class: an event that's still waiting in the mailbox
+     * of a subscriber is dropped when a new one is posted. Events implementing
+     * {@link Conflatable} are only conflated if their keys are equal.
+     */
+    boolean conflate() default false;
+
+    /**
+     * Append events of this class to the journal before dispatching them, if the event
+     * bus has been built with a {@link EventBusBuilder#journal(java.nio.file.Path) journal}.
+     * Events that weren't complete when the process died can be replayed using
+     * {@link EventBus#replayJournal()}.
+     */
+    boolean durable() default false;
+
 }
@@ -0,0 +1,294 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+
+import ch.raffael.sangria.logging.Logging;
+
+
+/**
+ * Forwards events between event buses in different processes on the same host through
+ * a ring buffer in a memory-mapped file.
+ *
+ * An {@link #outbound(EventBus, Path, int, EventSerializer, Class[]) outbound} bridge
+ * subscribes to the given event types and writes the events to the ring buffer in
+ * batches. An {@link #inbound(EventBus, Path, int, EventSerializer) inbound} bridge in
+ * the other process reads them and fires them on its event bus. The events of each
+ * type arrive in the order they were posted, unless they're
+ * {@link Event#async() asynchronous}. Events that can't be serialized or
+ * deserialized are logged and skipped.
+ *
+ * Each file connects exactly one outbound and one inbound bridge, use one file per
+ * direction. Don't bridge the same event type both ways, the events would bounce back
+ * and forth forever. If the inbound side falls behind, the outbound bridge queues the
+ * events in a bounded outbox in memory. Once that's full, it drops further events, see
+ * {@link #getDroppedEvents()}.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public final class EventBridge implements Closeable {
+
+    private static final Logger log = Logging.logger();
+
+    private static final int MAX_BATCH = 256;
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int DEFAULT_OUTBOX_CAPACITY = 64 * 1024;
+
+    private final Path file;
+    private final Thread thread;
+    private final Runnable onClose;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private volatile boolean running = true;
+
+    private EventBridge(Path file, String direction, Runnable loop, Runnable onClose) {
+        this.file = file;
+        this.onClose = onClose;
+        thread = new Thread(loop, "EventBridge[" + file + "]-" + direction);
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Forward the events of the given types posted to `source` to the inbound bridge
+     * reading the same file.
+     *
+     * @param capacity The capacity of the ring buffer in bytes, a power of 2. Both
+     *                 sides must use the same capacity.
+     */
+    public static EventBridge outbound(EventBus source, Path file, int capacity, EventSerializer codec, Class<?>... eventTypes) throws IOException {
+        return outbound(source, file, capacity, DEFAULT_OUTBOX_CAPACITY, codec, eventTypes);
+    }
+
+    /**
+     * Forward the events of the given types posted to `source` to the inbound bridge
+     * reading the same file.
+     *
+     * @param capacity       The capacity of the ring buffer in bytes, a power of 2. Both
+     *                       sides must use the same capacity.
+     * @param outboxCapacity The maximum number of events to queue while the ring buffer
+     *                       is full, further events are dropped.
+     */
+    public static EventBridge outbound(EventBus source, Path file, int capacity, int outboxCapacity, EventSerializer codec, Class<?>... eventTypes) throws IOException {
+        if ( outboxCapacity <= 0 ) {
+            throw new IllegalArgumentException("outboxCapacity(" + outboxCapacity + ") <= 0");
+        }
+        MappedRingBuffer ring = new MappedRingBuffer(file, capacity).producer();
+        BlockingQueue<Object> outbox = new LinkedBlockingQueue<>(outboxCapacity);
+        List<EventBus.Handler<Object>> handlers = new ArrayList<>(eventTypes.length);
+        EventBridge[] bridge = new EventBridge[1];
+        bridge[0] = new EventBridge(file, "out", () -> bridge[0].writeLoop(ring, outbox, codec), () -> {
+            handlers.forEach(source::unsubscribe);
+        });
+        for ( Class<?> eventType : eventTypes ) {
+            // one subscriber per type: each type is delivered in order, independently of the others
+            // never block the handler, it may be running on a worker of the source bus
+            EventBus.Handler<Object> handler = (bus, event) -> {
+                if ( !outbox.offer(event) ) {
+                    bridge[0].dropped(event);
+                }
+            };
+            handlers.add(handler);
+            source.subscribe(eventType, handler);
+        }
+        bridge[0].thread.start();
+        return bridge[0];
+    }
+
+    /**
+     * Fire the events written by the outbound bridge to the same file on `target`.
+     *
+     * @param capacity The capacity of the ring buffer in bytes, a power of 2. Both
+     *                 sides must use the same capacity.
+     */
+    public static EventBridge inbound(EventBus target, Path file, int capacity, EventSerializer codec) throws IOException {
+        MappedRingBuffer ring = new MappedRingBuffer(file, capacity).consumer();
+        EventBridge[] bridge = new EventBridge[1];
+        bridge[0] = new EventBridge(file, "in", () -> bridge[0].readLoop(ring, target, codec), () -> {});
+        bridge[0].thread.start();
+        return bridge[0];
+    }
+
+    private void writeLoop(MappedRingBuffer ring, BlockingQueue<Object> outbox, EventSerializer codec) {
+        List<Object> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while ( running || !outbox.isEmpty() ) {
+                Object first = outbox.poll(10, TimeUnit.MILLISECONDS);
+                if ( first == null ) {
+                    continue;
+                }
+                batch.add(first);
+                outbox.drainTo(batch, MAX_BATCH - 1);
+                for ( int i = 0; i < batch.size(); i++ ) {
+                    Object event = batch.get(i);
+                    byte[] bytes;
+                    try {
+                        bytes = codec.serialize(event);
+                    }
+                    catch ( IOException | RuntimeException e ) {
+                        log.error("Cannot serialize event {}, skipping it", event, e);
+                        continue;
+                    }
+                    if ( bytes.length > ring.maxRecordSize() ) {
+                        log.error("Event {} too large for ring buffer {} ({} bytes), skipping it", event, file, bytes.length);
+                        continue;
+                    }
+                    if ( !write(ring, bytes) ) {
+                        log.warn("Outbound bridge {} closed while the ring buffer is full, {} events not forwarded",
+                                file, batch.size() - i + outbox.size());
+                        return;
+                    }
+                }
+                ring.publish();
+                batch.clear();
+            }
+        }
+        catch ( InterruptedException e ) {
+            log.warn("Outbound bridge {} interrupted, {} events not forwarded", file, outbox.size() + batch.size());
+        }
+    }
+
+    /**
+     * Write the record, waiting for the consumer to make room if necessary.
+     *
+     * @return `false`, if the bridge has been closed while waiting.
+     */
+    private boolean write(MappedRingBuffer ring, byte[] bytes) throws InterruptedException {
+        long idle = 0;
+        while ( !ring.write(bytes) ) {
+            // publish what we have, so the consumer can make room
+            ring.publish();
+            if ( !running ) {
+                return false;
+            }
+            idle = idle(idle);
+        }
+        return true;
+    }
+
+    private void dropped(Object event) {
+        if ( droppedEvents.getAndIncrement() == 0 ) {
+            log.warn("Outbox of bridge {} full, dropping events, starting with {}", file, event);
+        }
+    }
+
+    /**
+     * The number of events an outbound bridge dropped because its outbox was full.
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    private void readLoop(MappedRingBuffer ring, EventBus target, EventSerializer codec) {
+        long idle = 0;
+        try {
+            while ( running ) {
+                int count = ring.read(bytes -> {
+                    Object event;
+                    try {
+                        event = codec.deserialize(bytes);
+                    }
+                    catch ( IOException | RuntimeException e ) {
+                        log.error("Cannot deserialize event from {}, skipping it", file, e);
+                        return;
+                    }
+                    try {
+                        target.fire(event);
+                    }
+                    catch ( RuntimeException e ) {
+                        log.error("Cannot fire event {} from {}, skipping it", event, file, e);
+                    }
+                }, MAX_BATCH);
+                idle = count > 0 ? 0 : idle(idle);
+            }
+        }
+        catch ( InterruptedException e ) {
+            // closed
+        }
+    }
+
+    /**
+     * Back off while there's nothing to do: spin, then yield, then park for up to a
+     * millisecond.
+     *
+     * @return The next idle count.
+     */
+    private long idle(long idle) throws InterruptedException {
+        if ( idle < 100 ) {
+            // spin
+        }
+        else if ( idle < 200 ) {
+            Thread.yield();
+        }
+        else {
+            LockSupport.parkNanos(Math.min(MAX_IDLE_NANOS, (idle - 199) * 1000));
+        }
+        if ( Thread.interrupted() ) {
+            throw new InterruptedException();
+        }
+        return idle + 1;
+    }
+
+    /**
+     * Stop the bridge. An outbound bridge unsubscribes and forwards the events it has
+     * already queued first, as long as there's room in the ring buffer. The events it
+     * can't forward are logged.
+     */
+    @Override
+    public void close() {
+        onClose.run();
+        running = false;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        if ( thread.isAlive() ) {
+            thread.interrupt();
+        }
+        long dropped = droppedEvents.get();
+        if ( dropped > 0 ) {
+            log.warn("Outbound bridge {} dropped {} events because its outbox was full", file, dropped);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EventBridge{" + thread.getName() + "}";
+    }
+
+}
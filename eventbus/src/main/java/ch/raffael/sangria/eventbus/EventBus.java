@@ -24,6 +24,7 @@
 
 package ch.raffael.sangria.eventbus;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 
@@ -34,10 +35,69 @@ public interface EventBus {
 
     <E> EventCompletion<E> post(E event);
 
+    /**
+     * Post several events at once. The events are delivered as if posted one after the
+     * other using `post()`, but the returned completion covers all of them: it completes
+     * when all events have been handled, reports the exceptions of all handlers and is
+     * dead if none of the events had a handler.
+     *
+     * Implementations may group the deliveries to the same handler, so the handlers of
+     * a non-sequential subscriber might not be in lockstep while handling the batch.
+     * Each handler still sees the events in iteration order.
+     */
+    <E> EventCompletion<List<E>> postAll(Iterable<? extends E> events);
+
+    /**
+     * Post an event without tracking its completion. This saves the bookkeeping per
+     * invocation that `post()` needs to complete the event. Exceptions thrown by the
+     * handlers are logged.
+     *
+     * @return `false`, if the event is dead, i.e. there was no handler for it.
+     */
+    boolean fire(Object event);
+
+    /**
+     * Create a child bus that shares the workers of this bus. The child has its own
+     * subscribers and metrics, and can be shut down independently of its parent and
+     * siblings. Shutting down the parent shuts down all of its children, too.
+     *
+     * @param name The name of the child, it's qualified with the name of the parent.
+     */
+    EventBus child(String name);
+
+    /**
+     * Create a child bus, optionally propagating the events posted to the child to the
+     * parent. Propagated events are delivered to the subscribers of the parent as if
+     * they were posted to the parent, but the completion returned by the child covers
+     * both the child's and the parent's handlers.
+     *
+     * @see #child(String)
+     */
+    EventBus child(String name, boolean propagate);
+
+    /**
+     * Post the {@link Event#durable() durable} events that were still in the journal
+     * when the event bus was built, i.e. the events that didn't complete in the last
+     * run. Call this after subscribing the handlers. The events are taken from the
+     * journal when they complete again, only the first call replays them.
+     *
+     * @return The completion of the replayed events, empty if the event bus has no
+     *         journal.
+     */
+    EventCompletion<List<Object>> replayJournal();
+
     void subscribe(Object object);
 
     void subscribeWeakly(Object object);
 
+    /**
+     * Subscribe a handler to the given event type. Unlike subscribing a {@link Handler}
+     * implementation, the event type doesn't need to be known from the handler's class,
+     * so the same class may handle different event types. Each handler instance can
+     * only be subscribed once, unsubscribe it using {@link #unsubscribe(Object)}.
+     */
+    <T> void subscribe(Class<T> eventType, Handler<? super T> handler);
+
     void unsubscribe(Object object);
 
     public Shutdown shutdown();
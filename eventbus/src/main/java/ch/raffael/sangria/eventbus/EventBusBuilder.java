@@ -24,15 +24,31 @@
 
 package ch.raffael.sangria.eventbus;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 import ch.raffael.sangria.libs.guava.util.concurrent.MoreExecutors;
 import ch.raffael.sangria.libs.guava.util.concurrent.ThreadFactoryBuilder;
@@ -46,30 +62,19 @@ import ch.raffael.sangria.commons.Classes;
 public final class EventBusBuilder {
 
     private static int CPU_COUNT = Runtime.getRuntime().availableProcessors();
-    private static Comparator<Runnable> PRIORITY_COMPARATOR = Comparator.comparingInt((o) -> {
-        if ( o instanceof Invocation ) {
-            Event annotation = ((Invocation)o).getEvent().getClass().getAnnotation(Event.class);
-            if ( annotation != null ) {
-                return annotation.priority();
-            }
-            else {
-                return 0;
-            }
+    private static Comparator<Runnable> PRIORITY_COMPARATOR = Comparator.<Runnable>comparingInt(o -> {
+        if ( o instanceof Prioritized ) {
+            return ((Prioritized)o).priority();
         }
         else {
             return Integer.MIN_VALUE;
         }
-    });
-    private static Comparator<Runnable> SERIAL_COMPARATOR = Comparator.<Runnable>comparingLong(o -> {
-        if ( o instanceof Invocation ) {
-            return ((Invocation)o).getSerial();
-        }
-        else {
-            return Long.MAX_VALUE;
-        }
     }).reversed();
 
     private Comparator<Runnable> eventComparator = null;
+    private boolean prioritized = false;
+    private int minPriority = Event.DEFAULT_PRIORITY;
+    private int maxPriority = Event.DEFAULT_PRIORITY;
     private int corePoolSize = Runtime.getRuntime().availableProcessors();
     private int maxPoolSize = Integer.MAX_VALUE;
     private Float maxPoolSizeBySubscriber = 1f;
@@ -79,6 +84,24 @@ public final class EventBusBuilder {
     private boolean exiting = false;
     private String name = null;
     private int subscriptionConcurrencyLevel = 1;
+    private int maxDrainBatch = 1;
+    private int mailboxCapacity = 0;
+    private int executorQueueCapacity = 0;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private boolean inlineCheapHandlers = false;
+    private boolean jmx = false;
+    private boolean recordLatencies = false;
+    private boolean profileHandlers = false;
+    private long slowHandlerThreshold = 0;
+    private int traceSampleRate = 0;
+    private int traceCapacity = 0;
+    private final List<ContextPropagator> contextPropagators = new ArrayList<>();
+    private final List<ParameterResolver> parameterResolvers = new ArrayList<>();
+    private Path journalDirectory = null;
+    private EventSerializer journalSerializer = null;
+    private int journalSegmentSize = 64 << 20;
+    private long journalSyncInterval = TimeUnit.MILLISECONDS.toNanos(10);
+    private Function<? super String, ? extends ExecutorService> executorFactory = null;
 
     EventBusBuilder() {
     }
@@ -132,12 +155,38 @@ public final class EventBusBuilder {
         return this;
     }
 
+    /**
+     * @deprecated Tasks are always dispatched in posting order within a priority, this
+     *             does nothing.
+     */
+    @Deprecated
     public EventBusBuilder serialPrioritized() {
-        return addEventComparator(SERIAL_COMPARATOR);
+        return this;
     }
 
+    /**
+     * Dispatch events with a higher {@link Event#priority() priority} first, priorities
+     * range from `DEFAULT_PRIORITY - 4` to `DEFAULT_PRIORITY + 4`.
+     *
+     * @see #prioritized(int, int)
+     */
     public EventBusBuilder prioritized() {
-        return addEventComparator(PRIORITY_COMPARATOR);
+        return prioritized(Event.DEFAULT_PRIORITY - 4, Event.DEFAULT_PRIORITY + 4);
+    }
+
+    /**
+     * Dispatch events with a higher {@link Event#priority() priority} first. The thread
+     * pool gets one FIFO queue per priority from `minPriority` to `maxPriority`, higher
+     * and lower priorities are treated like the nearest one in the range.
+     */
+    public EventBusBuilder prioritized(int minPriority, int maxPriority) {
+        if ( minPriority > maxPriority ) {
+            throw new IllegalArgumentException("minPriority(" + minPriority + ") > maxPriority(" + maxPriority + ")");
+        }
+        prioritized = true;
+        this.minPriority = minPriority;
+        this.maxPriority = maxPriority;
+        return this;
     }
 
     public EventBusBuilder addEventComparator(Comparator<Runnable> comparator) {
@@ -150,6 +199,150 @@ public final class EventBusBuilder {
         return this;
     }
 
+    /**
+     * Register the event bus with the platform MBean server as
+     * {@link ParallelEventBusMXBean}. Implies {@link #recordLatencies()}. The MBean is
+     * unregistered on shutdown.
+     */
+    public EventBusBuilder jmx() {
+        jmx = true;
+        recordLatencies = true;
+        return this;
+    }
+
+    /**
+     * Record queue wait and handler execution times per event type. Counters are always
+     * maintained.
+     */
+    public EventBusBuilder recordLatencies() {
+        recordLatencies = true;
+        return this;
+    }
+
+    /**
+     * Record invocation count, exceptions, total and maximum execution time per handler
+     * method. See {@link ParallelEventBusMXBean#getSlowestHandlers(int)}.
+     */
+    public EventBusBuilder profileHandlers() {
+        profileHandlers = true;
+        return this;
+    }
+
+    /**
+     * Post a {@link SlowHandlerEvent} whenever a handler takes at least the given time.
+     * Implies {@link #profileHandlers()}.
+     */
+    public EventBusBuilder slowHandlerThreshold(long threshold, TimeUnit unit) {
+        if ( threshold <= 0 ) {
+            throw new IllegalArgumentException("slowHandlerThreshold(" + threshold + ") <= 0");
+        }
+        profileHandlers = true;
+        slowHandlerThreshold = unit.toNanos(threshold);
+        return this;
+    }
+
+    /**
+     * Trace one in `sampleRate` posted events, keeping the last `capacity` traces. Events
+     * posted by the handlers of a traced event are always traced and linked to their
+     * parent. See {@link ParallelEventBusMXBean#getRecentTraces()}.
+     */
+    public EventBusBuilder traceSampling(int sampleRate, int capacity) {
+        if ( sampleRate <= 0 ) {
+            throw new IllegalArgumentException("sampleRate(" + sampleRate + ") <= 0");
+        }
+        if ( capacity <= 0 ) {
+            throw new IllegalArgumentException("capacity(" + capacity + ") <= 0");
+        }
+        traceSampleRate = sampleRate;
+        traceCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Capture a context when an event is posted and apply it on the worker thread while
+     * the handlers run. Propagators are applied in the order they were added.
+     */
+    public EventBusBuilder propagateContext(ContextPropagator propagator) {
+        contextPropagators.add(Objects.requireNonNull(propagator, "propagator"));
+        return this;
+    }
+
+    /**
+     * Propagate the SLF4J MDC of the posting thread to the handlers.
+     */
+    public EventBusBuilder propagateMdc() {
+        return propagateContext(MdcContextPropagator.INSTANCE);
+    }
+
+    /**
+     * Resolve additional parameters of handler methods. Resolvers are asked in the order
+     * they were added. `EventCompletion` and `MdcContext` parameters are always
+     * supported.
+     */
+    public EventBusBuilder resolveParameters(ParameterResolver resolver) {
+        parameterResolvers.add(Objects.requireNonNull(resolver, "resolver"));
+        return this;
+    }
+
+    /**
+     * Pass a per-thread instance to handler parameters of the given type, e.g. a scratch
+     * buffer. Each thread running handlers gets its own instance created by the given
+     * factory.
+     */
+    public <T> EventBusBuilder injectPerThread(Class<T> type, Supplier<? extends T> factory) {
+        ThreadLocal<T> instances = ThreadLocal.withInitial(factory);
+        Supplier<T> supplier = instances::get;
+        return resolveParameters((method, parameter) -> parameter.getType() == type ? supplier : null);
+    }
+
+    /**
+     * Append {@link Event#durable() durable} events to a journal in the given directory
+     * using Java serialization.
+     *
+     * @see #journal(Path, EventSerializer)
+     */
+    public EventBusBuilder journal(Path directory) {
+        return journal(directory, EventSerializer.javaSerialization());
+    }
+
+    /**
+     * Append {@link Event#durable() durable} events to a journal in the given directory
+     * before dispatching them. They're removed from the journal when their completion
+     * is complete, events left over from a crash can be replayed using
+     * {@link EventBus#replayJournal()}. Only one event bus may use a directory at a
+     * time. Child buses don't journal their events.
+     */
+    public EventBusBuilder journal(Path directory, EventSerializer serializer) {
+        this.journalDirectory = Objects.requireNonNull(directory, "directory");
+        this.journalSerializer = Objects.requireNonNull(serializer, "serializer");
+        return this;
+    }
+
+    /**
+     * The size of the journal's segment files, 64MiB by default. A segment is deleted
+     * when all of its events are complete.
+     */
+    public EventBusBuilder journalSegmentSize(int journalSegmentSize) {
+        if ( journalSegmentSize < 1024 ) {
+            throw new IllegalArgumentException("journalSegmentSize(" + journalSegmentSize + ") < 1024");
+        }
+        this.journalSegmentSize = journalSegmentSize;
+        return this;
+    }
+
+    /**
+     * How often the journal is forced to disk, 10ms by default. Posting never waits for
+     * the disk, the journal survives a crash of the process anyway, a crash of the
+     * system may lose the events of the last interval.
+     */
+    public EventBusBuilder journalSyncInterval(long interval, TimeUnit unit) {
+        if ( interval <= 0 ) {
+            throw new IllegalArgumentException("journalSyncInterval(" + interval + ") <= 0");
+        }
+        this.journalSyncInterval = unit.toNanos(interval);
+        return this;
+    }
+
     public EventBusBuilder prestartThreads() {
         prestartThreads = true;
         return this;
@@ -165,18 +358,168 @@ public final class EventBusBuilder {
         return this;
     }
 
-    public EventBus build() {
-        return build(new HandlerSynthesizer());
+    /**
+     * Let one worker run up to `maxDrainBatch` queued ordered submissions of the same
+     * subscriber in a row before handing the thread back to the executor. The default
+     * is 1, i.e. every ordered submission is a separate executor task.
+     */
+    public EventBusBuilder maxDrainBatch(int maxDrainBatch) {
+        if ( maxDrainBatch < 1 ) {
+            throw new IllegalArgumentException("maxDrainBatch(" + maxDrainBatch + ") < 1");
+        }
+        this.maxDrainBatch = maxDrainBatch;
+        return this;
     }
 
-    EventBus build(ReflectiveHandlerFactory reflectiveHandlerFactory) {
-        BlockingQueue<Runnable> queue;
-        if ( eventComparator == null ) {
-            queue = new LinkedBlockingQueue<>();
+    /**
+     * Limit the number of ordered deliveries waiting in each subscriber's mailbox. By
+     * default, mailboxes are unbounded. Asynchronous events don't go through the
+     * mailbox, use {@link #executorQueueCapacity(int)} to bound them.
+     *
+     * @see #overflowPolicy(OverflowPolicy)
+     */
+    public EventBusBuilder mailboxCapacity(int mailboxCapacity) {
+        if ( mailboxCapacity < 1 ) {
+            throw new IllegalArgumentException("mailboxCapacity(" + mailboxCapacity + ") < 1");
         }
-        else {
-            queue = new PriorityBlockingQueue<>(11, eventComparator);
+        this.mailboxCapacity = mailboxCapacity;
+        return this;
+    }
+
+    /**
+     * Limit the number of tasks waiting in the queue of the built-in thread pool. By
+     * default, the queue is unbounded. Not supported with event comparators or custom
+     * executors.
+     *
+     * @see #overflowPolicy(OverflowPolicy)
+     */
+    public EventBusBuilder executorQueueCapacity(int executorQueueCapacity) {
+        if ( executorQueueCapacity < 1 ) {
+            throw new IllegalArgumentException("executorQueueCapacity(" + executorQueueCapacity + ") < 1");
         }
+        this.executorQueueCapacity = executorQueueCapacity;
+        return this;
+    }
+
+    /**
+     * What to do if a bounded queue is full, the default is {@link OverflowPolicy#BLOCK}.
+     */
+    public EventBusBuilder overflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "overflowPolicy");
+        return this;
+    }
+
+    /**
+     * Run the invocations on the given executor instead of the built-in thread pool. The
+     * event bus takes ownership of the executor, i.e. shutting down the bus will shut
+     * down the executor. The pool size settings and event comparators don't apply to
+     * custom executors.
+     */
+    public EventBusBuilder executor(ExecutorService executor) {
+        return executor(name -> executor);
+    }
+
+    /**
+     * Like {@link #executor(ExecutorService)}, the factory will be called with the name
+     * of the event bus.
+     */
+    public EventBusBuilder executor(Function<? super String, ? extends ExecutorService> executorFactory) {
+        this.executorFactory = executorFactory;
+        return this;
+    }
+
+    public EventBusBuilder forkJoin() {
+        return forkJoin(CPU_COUNT);
+    }
+
+    /**
+     * Run the invocations in a `ForkJoinPool` in async mode, i.e. with FIFO local
+     * queues and work stealing between the workers.
+     */
+    public EventBusBuilder forkJoin(int parallelism) {
+        if ( parallelism <= 0 ) {
+            throw new IllegalArgumentException("parallelism(" + parallelism + ") <= 0");
+        }
+        return executor(name -> {
+            AtomicInteger threadCounter = new AtomicInteger();
+            return new ForkJoinPool(parallelism, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName(threadName(name, threadCounter.getAndIncrement()));
+                return thread;
+            }, null, true);
+        });
+    }
+
+    public EventBusBuilder workStealingLanes() {
+        return workStealingLanes(CPU_COUNT);
+    }
+
+    /**
+     * Run the invocations on a fixed number of lanes, each with its own worker thread
+     * and local queues, typically one per core. Each subscriber is hashed onto a lane and
+     * its ordered submissions always run on that lane. Other work is stolen by idle lanes.
+     */
+    public EventBusBuilder workStealingLanes(int lanes) {
+        if ( lanes <= 0 ) {
+            throw new IllegalArgumentException("lanes(" + lanes + ") <= 0");
+        }
+        return executor(name -> new LaneExecutor(lanes, threadFactory(name)));
+    }
+
+    /**
+     * Run each invocation on its own virtual thread. This is well suited for handlers
+     * that block on I/O. Requires Java 21 or later.
+     *
+     * @throws UnsupportedOperationException If the JVM doesn't support virtual threads.
+     */
+    public EventBusBuilder virtualThreads() {
+        Method factory;
+        try {
+            factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch ( NoSuchMethodException e ) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+        }
+        return executor(name -> {
+            try {
+                return (ExecutorService)factory.invoke(null);
+            }
+            catch ( IllegalAccessException | InvocationTargetException e ) {
+                throw new IllegalStateException("Cannot create virtual thread executor", e);
+            }
+        });
+    }
+
+    /**
+     * Run the handlers on the posting thread, without any thread pool. The handlers of
+     * a subscriber still see the events in posting order: an event posted while another
+     * thread delivers to the same subscriber, or by one of the subscriber's own
+     * handlers, is queued and delivered by the thread that's already delivering. All
+     * other posts return a completion that's already complete.
+     *
+     * Don't wait for the completion of events posted from a handler, they may be
+     * queued behind the running handler.
+     */
+    public EventBusBuilder inline() {
+        return executor(name -> MoreExecutors.newDirectExecutorService());
+    }
+
+    /**
+     * Run the {@link Subscribe#cheap() cheap} handlers on the posting thread like
+     * {@link #inline()}, all other handlers on the executor. Ordered deliveries only
+     * run on the posting thread if all of their handlers are cheap.
+     */
+    public EventBusBuilder inlineCheapHandlers() {
+        inlineCheapHandlers = true;
+        return this;
+    }
+
+    public EventBus build() {
+        return build(new CompiledHandlerFactory(new HandlerSynthesizer(
+                parameterResolvers.toArray(new ParameterResolver[parameterResolvers.size()]))));
+    }
+
+    EventBus build(ReflectiveHandlerFactory reflectiveHandlerFactory) {
         String name;
         if ( this.name == null ) {
             name = Classes.callerClass(EventBusBuilder.class).getName();
@@ -184,11 +527,37 @@ public final class EventBusBuilder {
         else {
             name = this.name;
         }
+        if ( executorFactory != null ) {
+            if ( prioritized || eventComparator != null ) {
+                throw new IllegalStateException("Priorities and event comparators are only supported by the built-in thread pool");
+            }
+            if ( executorQueueCapacity > 0 ) {
+                throw new IllegalStateException("Executor queue capacity is only supported by the built-in thread pool");
+            }
+            ExecutorService executor = executorFactory.apply(name);
+            return register(new ParallelEventBus(reflectiveHandlerFactory, name, subscriptionConcurrencyLevel, executor, ExecutorStats.of(executor), null,
+                    maxDrainBatch, mailboxCapacity, overflowPolicy, inlineCheapHandlers, metrics(), journal(name),
+                contextPropagators.toArray(new ContextPropagator[contextPropagators.size()])));
+        }
+        BlockingQueue<Runnable> queue;
+        if ( eventComparator != null ) {
+            if ( executorQueueCapacity > 0 ) {
+                throw new IllegalStateException("Executor queue capacity is not supported with event comparators");
+            }
+            queue = new PriorityBlockingQueue<>(11, prioritized ? PRIORITY_COMPARATOR.thenComparing(eventComparator) : eventComparator);
+        }
+        else if ( prioritized ) {
+            queue = new PriorityLanesQueue(minPriority, maxPriority, executorQueueCapacity > 0 ? executorQueueCapacity : Integer.MAX_VALUE);
+        }
+        else {
+            queue = executorQueueCapacity > 0 ? new LinkedBlockingQueue<>(executorQueueCapacity) : new LinkedBlockingQueue<>();
+        }
         ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
                 corePoolSize, maxPoolSizeBySubscriber != null ? corePoolSize : maxPoolSize,
                 idleTimeout, idleTimeoutUnit,
                 queue,
-                new ThreadFactoryBuilder().setNameFormat("ParallelEventBus[" + name.replaceAll("%", "%%") + "]-%d").build());
+                threadFactory(name),
+                overflowHandler(overflowPolicy));
         ExecutorService executor;
         if ( exiting ) {
             executor = MoreExecutors.getExitingExecutorService(threadPoolExecutor);
@@ -205,7 +574,90 @@ public final class EventBusBuilder {
         if ( prestartThreads ) {
             threadPoolExecutor.prestartAllCoreThreads();
         }
-        return new ParallelEventBus(reflectiveHandlerFactory, name, subscriptionConcurrencyLevel, executor, subscriberCountConsumer);
+        return register(new ParallelEventBus(reflectiveHandlerFactory, name, subscriptionConcurrencyLevel, executor, ExecutorStats.of(threadPoolExecutor), subscriberCountConsumer,
+                maxDrainBatch, mailboxCapacity, overflowPolicy, inlineCheapHandlers, metrics(), journal(name),
+                contextPropagators.toArray(new ContextPropagator[contextPropagators.size()])));
+    }
+
+    private EventJournal journal(String name) {
+        if ( journalDirectory == null ) {
+            return null;
+        }
+        try {
+            return new EventJournal(name, journalDirectory, journalSerializer, journalSegmentSize, journalSyncInterval);
+        }
+        catch ( IOException e ) {
+            throw new UncheckedIOException("Cannot open event journal in " + journalDirectory, e);
+        }
+    }
+
+    private EventBusMetrics metrics() {
+        return new EventBusMetrics(recordLatencies, profileHandlers, slowHandlerThreshold,
+                traceSampleRate > 0 ? new EventTracer(traceSampleRate, traceCapacity) : null);
+    }
+
+    private ParallelEventBus register(ParallelEventBus eventBus) {
+        if ( jmx ) {
+            eventBus.registerMBean();
+        }
+        return eventBus;
+    }
+
+    private static ThreadFactory threadFactory(String busName) {
+        return new ThreadFactoryBuilder()
+                .setNameFormat(threadName(busName.replaceAll("%", "%%"), "%d"))
+                .setThreadFactory(ParallelEventBus.WorkerThread::new)
+                .build();
+    }
+
+    private static RejectedExecutionHandler overflowHandler(OverflowPolicy policy) {
+        switch ( policy ) {
+            case BLOCK:
+                return (task, executor) -> {
+                    if ( executor.isShutdown() ) {
+                        throw new RejectedExecutionException("Executor has been shut down");
+                    }
+                    // fork-join workers aren't workers of this pool
+                    if ( ParallelEventBus.isWorkerThread(null) ) {
+                        // blocking a worker may deadlock the bus, run the task right here
+                        task.run();
+                        return;
+                    }
+                    try {
+                        executor.getQueue().put(task);
+                    }
+                    catch ( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                        throw new EventOverflowException("Interrupted while waiting for room in the executor queue");
+                    }
+                };
+            case DROP_OLDEST:
+                return (task, executor) -> {
+                    if ( executor.isShutdown() ) {
+                        throw new RejectedExecutionException("Executor has been shut down");
+                    }
+                    BlockingQueue<Runnable> queue = executor.getQueue();
+                    // the head of a prioritized queue is its most urgent task, not its oldest
+                    Runnable oldest = queue instanceof PriorityLanesQueue
+                                      ? ((PriorityLanesQueue)queue).pollLowestPriority()
+                                      : queue.poll();
+                    if ( oldest instanceof Cancellable ) {
+                        ((Cancellable)oldest).cancel(new EventOverflowException("Dropped from executor queue"));
+                    }
+                    executor.execute(task);
+                };
+            default:
+                return (task, executor) -> {
+                    if ( executor.isShutdown() ) {
+                        throw new RejectedExecutionException("Executor has been shut down");
+                    }
+                    throw new EventOverflowException("Executor queue full");
+                };
+        }
+    }
+
+    static String threadName(String busName, Object number) {
+        return "ParallelEventBus[" + busName + "]-" + number;
     }
 
 }
@@ -0,0 +1,186 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.eventbus;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+
+/**
+ * The counters and latency histograms of a {@link ParallelEventBus}. Counters are striped
+ * and always maintained, latencies are only recorded if enabled, because that costs a
+ * few calls to `System.nanoTime()` per invocation.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class EventBusMetrics {
+
+    private final boolean recordLatencies;
+    private final boolean profileHandlers;
+    private final long slowHandlerThreshold;
+    private final EventTracer tracer;
+
+    private final LongAdder postedEvents = new LongAdder();
+    private final LongAdder deadEvents = new LongAdder();
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder failedInvocations = new LongAdder();
+    private final LongAdder supersededInvocations = new LongAdder();
+
+    private final ConcurrentMap<Class<?>, Latencies> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, HandlerProfile> handlerProfiles = new ConcurrentHashMap<>();
+
+    /**
+     * @param slowHandlerThreshold Post a {@link SlowHandlerEvent} if a handler takes at
+     *                             least this many nanoseconds, 0 to disable.
+     * @param tracer               The tracer for sampled events, `null` to disable.
+     */
+    EventBusMetrics(boolean recordLatencies, boolean profileHandlers, long slowHandlerThreshold, EventTracer tracer) {
+        this.recordLatencies = recordLatencies;
+        this.profileHandlers = profileHandlers || slowHandlerThreshold > 0;
+        this.slowHandlerThreshold = slowHandlerThreshold;
+        this.tracer = tracer;
+    }
+
+    /**
+     * New, empty metrics with the same settings for a child bus. The tracer is shared,
+     * so traces follow events across the buses of a family.
+     */
+    EventBusMetrics forChild() {
+        return new EventBusMetrics(recordLatencies, profileHandlers, slowHandlerThreshold, tracer);
+    }
+
+    EventTracer tracer() {
+        return tracer;
+    }
+
+    boolean recordsLatencies() {
+        return recordLatencies;
+    }
+
+    void eventPosted(boolean dead) {
+        postedEvents.increment();
+        if ( dead ) {
+            deadEvents.increment();
+        }
+    }
+
+    void invocationComplete(Throwable exception) {
+        invocations.increment();
+        if ( exception != null ) {
+            failedInvocations.increment();
+        }
+    }
+
+    void invocationSuperseded() {
+        supersededInvocations.increment();
+    }
+
+    /**
+     * @return The profile of the given handler, `null` if handlers aren't profiled.
+     */
+    HandlerProfile handlerProfile(String handlerName) {
+        if ( !profileHandlers ) {
+            return null;
+        }
+        return handlerProfiles.computeIfAbsent(handlerName, HandlerProfile::new);
+    }
+
+    void handlerComplete(HandlerProfile profile, EventBus eventBus, Object event, long nanos, Throwable exception) {
+        profile.record(nanos, exception);
+        if ( slowHandlerThreshold > 0 && nanos >= slowHandlerThreshold && !(event instanceof SlowHandlerEvent) ) {
+            eventBus.post(new SlowHandlerEvent(profile.handlerName(), event, nanos));
+        }
+    }
+
+    /**
+     * Only call this if latencies are recorded.
+     */
+    Latencies latencies(Class<?> eventType) {
+        Latencies result = latencies.get(eventType);
+        if ( result == null ) {
+            result = latencies.computeIfAbsent(eventType, t -> new Latencies());
+        }
+        return result;
+    }
+
+    long getPostedEvents() {
+        return postedEvents.sum();
+    }
+
+    long getDeadEvents() {
+        return deadEvents.sum();
+    }
+
+    long getInvocations() {
+        return invocations.sum();
+    }
+
+    long getFailedInvocations() {
+        return failedInvocations.sum();
+    }
+
+    long getSupersededInvocations() {
+        return supersededInvocations.sum();
+    }
+
+    Map<String, LatencyStats> queueWaitLatencies() {
+        return snapshot(l -> l.queueWait);
+    }
+
+    Map<String, LatencyStats> handlerLatencies() {
+        return snapshot(l -> l.handler);
+    }
+
+    /**
+     * @return The handlers sorted by their longest invocation, longest first.
+     */
+    List<HandlerStats> slowestHandlers(int limit) {
+        return handlerProfiles.values().stream()
+                .map(HandlerProfile::snapshot)
+                .sorted(Comparator.comparingLong(HandlerStats::getMaxTime)
+                        .thenComparingLong(HandlerStats::getTotalTime).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    private Map<String, LatencyStats> snapshot(Function<Latencies, LatencyHistogram> histogram) {
+        Map<String, LatencyStats> snapshot = new TreeMap<>();
+        latencies.forEach((type, l) -> snapshot.put(type.getName(), histogram.apply(l).snapshot()));
+        return snapshot;
+    }
+
+    static final class Latencies {
+        final LatencyHistogram queueWait = new LatencyHistogram();
+        final LatencyHistogram handler = new LatencyHistogram();
+    }
+
+}
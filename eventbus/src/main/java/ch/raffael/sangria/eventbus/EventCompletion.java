@@ -25,6 +25,7 @@
 package ch.raffael.sangria.eventbus;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
@@ -41,6 +42,17 @@ public interface EventCompletion<T> {
 
     EventCompletion<T> afterCompletion(Consumer<? super EventCompletion<? super T>> consumer);
 
+    /**
+     * A future that completes with this event completion, for composing completions
+     * without blocking threads. The future completes normally even if some handlers
+     * failed, see {@link #getExceptions()}.
+     */
+    default CompletableFuture<EventCompletion<T>> toCompletableFuture() {
+        CompletableFuture<EventCompletion<T>> future = new CompletableFuture<>();
+        afterCompletion(completion -> future.complete(this));
+        return future;
+    }
+
     T getEvent();
 
     EventBus getEventBus();
@@ -49,6 +61,15 @@ public interface EventCompletion<T> {
 
     boolean isDead();
 
+    /**
+     * The number of handler invocations that didn't happen because a newer
+     * {@link Conflatable conflated} event replaced this one in the subscriber's mailbox.
+     * Completions of buses that don't conflate events always report 0.
+     */
+    default int getSupersededInvocations() {
+        return 0;
+    }
+
     boolean isComplete();
 
     EventCompletion<T> await() throws InterruptedException;
@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+import java.util.Arrays;
+
+
+/**
+ * What's captured from the posting thread to be applied while running the event's
+ * handlers: the contexts of the {@link ContextPropagator ContextPropagators} and the
+ * trace if the event has been sampled.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class EventContext {
+
+    private static final ContextPropagator.Context[] NO_CONTEXTS = new ContextPropagator.Context[0];
+
+    private final ContextPropagator.Context[] contexts;
+    final EventTracer.Trace trace;
+
+    private EventContext(ContextPropagator.Context[] contexts, EventTracer.Trace trace) {
+        this.contexts = contexts;
+        this.trace = trace;
+    }
+
+    /**
+     * @return The context, `null` if there's nothing to apply.
+     */
+    static EventContext capture(ContextPropagator[] propagators, EventTracer tracer, Object event) {
+        EventTracer.Trace trace = tracer == null ? null : tracer.sample(event);
+        ContextPropagator.Context[] contexts = NO_CONTEXTS;
+        int count = 0;
+        for ( ContextPropagator propagator : propagators ) {
+            ContextPropagator.Context context = propagator.capture();
+            if ( context != null ) {
+                if ( count == contexts.length ) {
+                    contexts = Arrays.copyOf(contexts, propagators.length);
+                }
+                contexts[count++] = context;
+            }
+        }
+        if ( count == 0 && trace == null ) {
+            return null;
+        }
+        return new EventContext(count == contexts.length ? contexts : Arrays.copyOf(contexts, count), trace);
+    }
+
+    /**
+     * Apply the contexts to the current thread.
+     *
+     * @return A scope restoring the thread's previous contexts in reverse order.
+     */
+    ContextPropagator.Scope apply() {
+        int count = contexts.length + (trace == null ? 0 : 1);
+        ContextPropagator.Scope[] scopes = new ContextPropagator.Scope[count];
+        int applied = 0;
+        try {
+            for ( ContextPropagator.Context context : contexts ) {
+                scopes[applied++] = context.apply();
+            }
+            if ( trace != null ) {
+                scopes[applied++] = trace.enter();
+            }
+        }
+        catch ( RuntimeException | Error e ) {
+            close(scopes, applied);
+            throw e;
+        }
+        return () -> close(scopes, scopes.length);
+    }
+
+    private static void close(ContextPropagator.Scope[] scopes, int count) {
+        for ( int i = count - 1; i >= 0; i-- ) {
+            if ( scopes[i] != null ) {
+                scopes[i].close();
+            }
+        }
+    }
+
+}
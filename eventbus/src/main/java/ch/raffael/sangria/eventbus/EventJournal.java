@@ -0,0 +1,281 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+
+import ch.raffael.sangria.libs.guava.util.concurrent.ThreadFactoryBuilder;
+
+import ch.raffael.sangria.logging.Logging;
+
+
+/**
+ * An append-only journal of durable events in memory-mapped segment files.
+ *
+ * Each record consists of its total size (`int`), an acknowledge flag (`byte`) and the
+ * serialized event. Appends are serialized by a lock, the size is written last, so a
+ * record torn by a crash reads as the end of the segment. Acknowledging a record just
+ * sets its flag; a segment is deleted once it's full and all of its records have been
+ * acknowledged.
+ *
+ * Writes to the mapping survive a crash of the process. To survive a crash of the
+ * system, a background thread forces the dirty segments to disk every sync interval
+ * (group commit), posters never wait for the disk.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class EventJournal implements Closeable {
+
+    private static final Logger log = Logging.logger();
+
+    private static final String SUFFIX = ".journal";
+    private static final int HEADER_SIZE = 5;
+    private static final int FLAG_OFFSET = 4;
+    private static final byte ACKNOWLEDGED = 1;
+
+    private final Path directory;
+    private final EventSerializer serializer;
+    private final int segmentSize;
+    private final Set<Segment> segments = new CopyOnWriteArraySet<>();
+    private final Object appendLock = new Object();
+    private final ScheduledExecutorService syncer;
+    private List<Record> unacknowledged;
+    private long nextSequence;
+    private Segment current = null;
+    private volatile boolean closed = false;
+
+    EventJournal(String name, Path directory, EventSerializer serializer, int segmentSize, long syncIntervalNanos) throws IOException {
+        this.directory = directory;
+        this.serializer = serializer;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        unacknowledged = recover();
+        syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(EventBusBuilder.threadName(name.replaceAll("%", "%%"), "journal"))
+                .setDaemon(true)
+                .build());
+        syncer.scheduleWithFixedDelay(this::sync, syncIntervalNanos, syncIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Open the segments left over from the last run and collect their unacknowledged
+     * records. Segments without any are deleted right away.
+     */
+    private List<Record> recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX) ) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        List<Record> records = new ArrayList<>();
+        for ( Path file : files ) {
+            String fileName = file.getFileName().toString();
+            nextSequence = Math.max(nextSequence, Long.parseLong(fileName.substring(0, fileName.length() - SUFFIX.length()), 16) + 1);
+            Segment segment = new Segment(file, map(file, Files.size(file)));
+            int position = 0;
+            while ( position <= segment.buffer.capacity() - HEADER_SIZE ) {
+                int size = segment.buffer.getInt(position);
+                if ( size < HEADER_SIZE || position + size > segment.buffer.capacity() ) {
+                    break;
+                }
+                if ( segment.buffer.get(position + FLAG_OFFSET) != ACKNOWLEDGED ) {
+                    records.add(new Record(segment, position));
+                    segment.pending.incrementAndGet();
+                }
+                position += size;
+            }
+            segment.position = position;
+            segments.add(segment);
+            seal(segment);
+        }
+        return records;
+    }
+
+    /**
+     * Take the records that haven't been acknowledged in the last run. Only the first
+     * call returns them.
+     */
+    synchronized List<Record> takeUnacknowledged() {
+        List<Record> records = unacknowledged;
+        unacknowledged = new ArrayList<>();
+        return records;
+    }
+
+    /**
+     * @return The record, `null` if the journal has been closed.
+     */
+    Record append(Object event) throws IOException {
+        byte[] payload = serializer.serialize(event);
+        int size = HEADER_SIZE + payload.length;
+        synchronized ( appendLock ) {
+            if ( closed ) {
+                return null;
+            }
+            Segment segment = current;
+            if ( segment == null || segment.buffer.capacity() - segment.position < size ) {
+                segment = rotate(size);
+            }
+            int position = segment.position;
+            ByteBuffer appender = segment.appender;
+            appender.position(position + HEADER_SIZE);
+            appender.put(payload);
+            segment.buffer.putInt(position, size);
+            segment.position = position + size;
+            segment.pending.incrementAndGet();
+            segment.dirty = true;
+            return new Record(segment, position);
+        }
+    }
+
+    Object read(Record record) throws IOException {
+        ByteBuffer buffer = record.segment.buffer.duplicate();
+        int size = buffer.getInt(record.position);
+        byte[] payload = new byte[size - HEADER_SIZE];
+        buffer.position(record.position + HEADER_SIZE);
+        buffer.get(payload);
+        return serializer.deserialize(payload);
+    }
+
+    void acknowledge(Record record) {
+        Segment segment = record.segment;
+        segment.buffer.put(record.position + FLAG_OFFSET, ACKNOWLEDGED);
+        segment.dirty = true;
+        if ( segment.pending.decrementAndGet() == 0 && segment.sealed ) {
+            delete(segment);
+        }
+    }
+
+    private Segment rotate(int minSize) throws IOException {
+        if ( current != null ) {
+            seal(current);
+        }
+        Path file = directory.resolve(String.format("%016x", nextSequence++) + SUFFIX);
+        current = new Segment(file, map(file, Math.max(segmentSize, minSize)));
+        segments.add(current);
+        return current;
+    }
+
+    private void seal(Segment segment) {
+        segment.sealed = true;
+        if ( segment.pending.get() == 0 ) {
+            delete(segment);
+        }
+    }
+
+    private void delete(Segment segment) {
+        if ( segment.deleted.compareAndSet(false, true) ) {
+            segments.remove(segment);
+            try {
+                // the mapping is released when the buffer is collected
+                Files.deleteIfExists(segment.file);
+            }
+            catch ( IOException e ) {
+                log.warn("Cannot delete journal segment {}", segment.file, e);
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE) ) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void sync() {
+        for ( Segment segment : segments ) {
+            if ( segment.dirty ) {
+                segment.dirty = false;
+                try {
+                    segment.buffer.force();
+                }
+                catch ( RuntimeException e ) {
+                    log.error("Cannot sync journal segment {}", segment.file, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized ( appendLock ) {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+        }
+        syncer.shutdown();
+        sync();
+    }
+
+    static final class Record {
+        private final Segment segment;
+        private final int position;
+        private Record(Segment segment, int position) {
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        /**
+         * A view of the buffer with its own position for appending, only used while
+         * holding the append lock.
+         */
+        private final ByteBuffer appender;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean deleted = new AtomicBoolean();
+        private int position = 0;
+        private volatile boolean sealed = false;
+        private volatile boolean dirty = false;
+        private Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+            this.appender = buffer.duplicate();
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+import java.beans.ConstructorProperties;
+
+
+/**
+ * The timings of one handler invocation of a sampled event, times in nanoseconds.
+ *
+ * Events posted by a handler of a sampled event are always sampled, they reference the
+ * trace of the event that caused them as parent.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ * @see EventBusBuilder#traceSampling(int, int)
+ */
+public final class EventTrace {
+
+    private final long traceId;
+    private final long parentId;
+    private final String eventType;
+    private final String handler;
+    private final String thread;
+    private final long postedAt;
+    private final long queueTime;
+    private final long handlerTime;
+    private final boolean failed;
+
+    @ConstructorProperties({ "traceId", "parentId", "eventType", "handler", "thread", "postedAt", "queueTime", "handlerTime", "failed" })
+    public EventTrace(long traceId, long parentId, String eventType, String handler, String thread, long postedAt, long queueTime, long handlerTime, boolean failed) {
+        this.traceId = traceId;
+        this.parentId = parentId;
+        this.eventType = eventType;
+        this.handler = handler;
+        this.thread = thread;
+        this.postedAt = postedAt;
+        this.queueTime = queueTime;
+        this.handlerTime = handlerTime;
+        this.failed = failed;
+    }
+
+    @Override
+    public String toString() {
+        return "EventTrace{" + traceId + (parentId == 0 ? "" : "<-" + parentId) + ":" + eventType + "->" + handler
+                + "@" + thread + ",queueTime=" + queueTime + ",handlerTime=" + handlerTime + (failed ? ",failed" : "") + "}";
+    }
+
+    /**
+     * The ID of the sampled event, shared by all invocations of the event.
+     */
+    public long getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * The trace ID of the event whose handler posted this event, 0 if it wasn't posted
+     * by the handler of a sampled event.
+     */
+    public long getParentId() {
+        return parentId;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    /**
+     * The handler as `declaringClass#method(ParameterType, ...)`.
+     */
+    public String getHandler() {
+        return handler;
+    }
+
+    public String getThread() {
+        return thread;
+    }
+
+    /**
+     * When the event was posted in milliseconds since the epoch.
+     */
+    public long getPostedAt() {
+        return postedAt;
+    }
+
+    /**
+     * The time from posting the event until the handler started.
+     */
+    public long getQueueTime() {
+        return queueTime;
+    }
+
+    public long getHandlerTime() {
+        return handlerTime;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Samples one in N posted events and records the timings of their invocations into a
+ * ring buffer of the most recent {@link EventTrace EventTraces}.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class EventTracer {
+
+    private static final AtomicLong TRACE_IDS = new AtomicLong();
+
+    /**
+     * The trace of the event whose handler the current thread is running.
+     */
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+
+    private final int sampleRate;
+    private final AtomicReferenceArray<EventTrace> traces;
+    private final AtomicLong next = new AtomicLong();
+
+    EventTracer(int sampleRate, int capacity) {
+        this.sampleRate = sampleRate;
+        traces = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Decide whether to trace the given event, events posted by handlers of traced events
+     * are always traced.
+     *
+     * @return The trace, `null` if the event isn't sampled.
+     */
+    Trace sample(Object event) {
+        Trace parent = CURRENT.get();
+        if ( parent == null && ThreadLocalRandom.current().nextInt(sampleRate) != 0 ) {
+            return null;
+        }
+        return new Trace(parent == null ? 0 : parent.id, event.getClass().getName());
+    }
+
+    List<EventTrace> recentTraces() {
+        long end = next.get();
+        List<EventTrace> result = new ArrayList<>(traces.length());
+        for ( long i = Math.max(0, end - traces.length()); i < end; i++ ) {
+            EventTrace trace = traces.get((int)(i % traces.length()));
+            if ( trace != null ) {
+                result.add(trace);
+            }
+        }
+        return result;
+    }
+
+    final class Trace {
+
+        private final long id = TRACE_IDS.incrementAndGet();
+        private final long parentId;
+        private final String eventType;
+        private final long postedAt = System.currentTimeMillis();
+        private final long postedNanos = System.nanoTime();
+
+        private Trace(long parentId, String eventType) {
+            this.parentId = parentId;
+            this.eventType = eventType;
+        }
+
+        /**
+         * Make this the current trace of the thread until the scope is closed, so events
+         * posted by the handler are traced as its children.
+         */
+        ContextPropagator.Scope enter() {
+            Trace previous = CURRENT.get();
+            CURRENT.set(this);
+            return () -> CURRENT.set(previous);
+        }
+
+        void record(String handler, long start, long handlerTime, boolean failed) {
+            traces.set((int)(next.getAndIncrement() % traces.length()), new EventTrace(
+                    id, parentId, eventType, handler, Thread.currentThread().getName(), postedAt, start - postedNanos, handlerTime, failed));
+        }
+    }
+
+}
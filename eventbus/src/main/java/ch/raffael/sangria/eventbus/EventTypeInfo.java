@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.eventbus;
+
+import java.util.Objects;
+
+
+/**
+ * What the event bus needs to know about an event class, computed once per class.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class EventTypeInfo {
+
+    private static final ClassValue<EventTypeInfo> INFOS = new ClassValue<EventTypeInfo>() {
+        @Override
+        protected EventTypeInfo computeValue(Class<?> type) {
+            return new EventTypeInfo(type);
+        }
+    };
+
+    final boolean async;
+    final int priority;
+    final boolean conflate;
+    final boolean durable;
+
+    private EventTypeInfo(Class<?> type) {
+        Event annotation = type.getAnnotation(Event.class);
+        async = annotation != null && annotation.async();
+        priority = annotation == null ? Event.DEFAULT_PRIORITY : annotation.priority();
+        conflate = !async && ((annotation != null && annotation.conflate()) || Conflatable.class.isAssignableFrom(type));
+        durable = annotation != null && annotation.durable();
+    }
+
+    static EventTypeInfo of(Class<?> eventType) {
+        return INFOS.get(eventType);
+    }
+
+    static EventTypeInfo of(Object event) {
+        return INFOS.get(event.getClass());
+    }
+
+    /**
+     * The key for conflating the given event in a mailbox, `null` if it isn't conflated.
+     */
+    static Object conflationKey(Object event) {
+        if ( !of(event).conflate ) {
+            return null;
+        }
+        else if ( event instanceof Conflatable ) {
+            return new ConflationKey(event.getClass(), ((Conflatable)event).conflationKey());
+        }
+        else {
+            return event.getClass();
+        }
+    }
+
+    private static final class ConflationKey {
+        private final Class<?> type;
+        private final Object key;
+        private ConflationKey(Class<?> type, Object key) {
+            this.type = type;
+            this.key = key;
+        }
+        @Override
+        public boolean equals(Object o) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( !(o instanceof ConflationKey) ) {
+                return false;
+            }
+            ConflationKey that = (ConflationKey)o;
+            return type == that.type && Objects.equals(key, that.key);
+        }
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + Objects.hashCode(key);
+        }
+    }
+
+}
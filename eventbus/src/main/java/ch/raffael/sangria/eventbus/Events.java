@@ -46,12 +46,19 @@ public final class Events {
         }
     }
 
+    public static int eventPriority(Object event) {
+        return eventTypePriority(event.getClass());
+    }
+
+    public static int eventTypePriority(Class<?> eventType) {
+        return EventTypeInfo.of(eventType).priority;
+    }
+
     public static boolean isAsynchronousEvent(Object event) {
         return isAsynchronousEventType(event.getClass());
     }
 
     public static boolean isAsynchronousEventType(Class<?> eventType) {
-        Event annotation = eventType.getAnnotation(Event.class);
-        return annotation != null && annotation.async();
+        return EventTypeInfo.of(eventType).async;
     }
 }
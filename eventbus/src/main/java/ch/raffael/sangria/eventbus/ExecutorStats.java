@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.eventbus;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+
+/**
+ * Queue depth and active threads of the executor of an event bus, as far as the
+ * executor tells them.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+interface ExecutorStats {
+
+    ExecutorStats UNKNOWN = new ExecutorStats() {
+        @Override
+        public int queueSize() {
+            return -1;
+        }
+        @Override
+        public int activeThreads() {
+            return -1;
+        }
+    };
+
+    /**
+     * @return The number of tasks waiting in the executor's queue, -1 if unknown.
+     */
+    int queueSize();
+
+    /**
+     * @return The number of threads running tasks, -1 if unknown.
+     */
+    int activeThreads();
+
+    static ExecutorStats of(ExecutorService executor) {
+        if ( executor instanceof ThreadPoolExecutor ) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor)executor;
+            return new ExecutorStats() {
+                @Override
+                public int queueSize() {
+                    return pool.getQueue().size();
+                }
+                @Override
+                public int activeThreads() {
+                    return pool.getActiveCount();
+                }
+            };
+        }
+        else if ( executor instanceof ForkJoinPool ) {
+            ForkJoinPool pool = (ForkJoinPool)executor;
+            return new ExecutorStats() {
+                @Override
+                public int queueSize() {
+                    return (int)Math.min(Integer.MAX_VALUE, pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+                }
+                @Override
+                public int activeThreads() {
+                    return pool.getActiveThreadCount();
+                }
+            };
+        }
+        else if ( executor instanceof LaneExecutor ) {
+            LaneExecutor lanes = (LaneExecutor)executor;
+            return new ExecutorStats() {
+                @Override
+                public int queueSize() {
+                    return lanes.queuedTaskCount();
+                }
+                @Override
+                public int activeThreads() {
+                    return lanes.busyLaneCount();
+                }
+            };
+        }
+        else {
+            return UNKNOWN;
+        }
+    }
+
+}
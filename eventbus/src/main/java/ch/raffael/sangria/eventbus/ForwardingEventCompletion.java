@@ -25,6 +25,7 @@
 package ch.raffael.sangria.eventbus;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
@@ -48,6 +49,11 @@ public abstract class ForwardingEventCompletion<T> implements EventCompletion<T>
         return this;
     }
 
+    @Override
+    public CompletableFuture<EventCompletion<T>> toCompletableFuture() {
+        return delegate().toCompletableFuture().thenApply(completion -> this);
+    }
+
     @Override
     public T getEvent() {
         return delegate().getEvent();
@@ -68,6 +74,11 @@ public abstract class ForwardingEventCompletion<T> implements EventCompletion<T>
         return delegate().isDead();
     }
 
+    @Override
+    public int getSupersededInvocations() {
+        return delegate().getSupersededInvocations();
+    }
+
     @Override
     public boolean isComplete() {
         return delegate().isComplete();
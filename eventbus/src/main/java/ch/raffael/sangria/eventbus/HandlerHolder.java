@@ -31,10 +31,20 @@ class HandlerHolder {
 
     final Class<?> eventType;
     final EventBus.Handler<?> handler;
+    /**
+     * The handler method as `declaringClass#method(ParameterType, ...)`.
+     */
+    final String name;
+    /**
+     * Whether the handler is {@link Subscribe#cheap() cheap}.
+     */
+    final boolean cheap;
 
-    HandlerHolder(Class<?> eventType, EventBus.Handler<?> handler) {
+    HandlerHolder(Class<?> eventType, EventBus.Handler<?> handler, String name, boolean cheap) {
         this.eventType = eventType;
         this.handler = handler;
+        this.name = name;
+        this.cheap = cheap;
     }
 
 }
@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.eventbus;
+
+import java.beans.ConstructorProperties;
+
+
+/**
+ * A snapshot of the execution statistics of a handler method, times in nanoseconds.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public final class HandlerStats {
+
+    private final String handler;
+    private final long invocations;
+    private final long exceptions;
+    private final long totalTime;
+    private final long maxTime;
+
+    @ConstructorProperties({ "handler", "invocations", "exceptions", "totalTime", "maxTime" })
+    public HandlerStats(String handler, long invocations, long exceptions, long totalTime, long maxTime) {
+        this.handler = handler;
+        this.invocations = invocations;
+        this.exceptions = exceptions;
+        this.totalTime = totalTime;
+        this.maxTime = maxTime;
+    }
+
+    @Override
+    public String toString() {
+        return "HandlerStats{" + handler + ":invocations=" + invocations + ",exceptions=" + exceptions
+                + ",totalTime=" + totalTime + ",maxTime=" + maxTime + "}";
+    }
+
+    /**
+     * The handler as `declaringClass#method(ParameterType, ...)`.
+     */
+    public String getHandler() {
+        return handler;
+    }
+
+    public long getInvocations() {
+        return invocations;
+    }
+
+    public long getExceptions() {
+        return exceptions;
+    }
+
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    public long getMeanTime() {
+        return invocations == 0 ? 0 : totalTime / invocations;
+    }
+
+}
@@ -26,21 +26,24 @@ package ch.raffael.sangria.eventbus;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Parameter;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import ch.raffael.sangria.libs.guava.primitives.Primitives;
 import ch.raffael.sangria.libs.guava.reflect.TypeToken;
 
 import ch.raffael.sangria.commons.UnreachableCodeError;
 import ch.raffael.sangria.dynamic.ClassSynthesizer;
+import ch.raffael.sangria.dynamic.ClassSynthesizer.PreboundClassValues;
+import ch.raffael.sangria.dynamic.ClassSynthesizerException;
 import ch.raffael.sangria.dynamic.Reflection;
+import ch.raffael.sangria.dynamic.asm.Label;
 import ch.raffael.sangria.dynamic.asm.Opcodes;
 import ch.raffael.sangria.dynamic.asm.Type;
 import ch.raffael.sangria.dynamic.asm.commons.GeneratorAdapter;
+import ch.raffael.sangria.dynamic.asm.commons.TableSwitchGenerator;
 
 import static ch.raffael.sangria.dynamic.Reflection.IterationMode.EXCLUDE_INTERFACES;
 import static ch.raffael.sangria.dynamic.asm.Type.getType;
@@ -48,196 +51,253 @@ import static ch.raffael.sangria.dynamic.asm.commons.Method.getMethod;
 
 
 /**
- * @todo Injections have been removed, re-add them. (Search for "[INJECTIONS]"
+ * Synthesizes one {@link CompiledHandlers} class per subscriber class at runtime. Like
+ * the classes generated by the {@link SubscribeProcessor}, it dispatches to the handler
+ * methods using a `switch` on the handler index, so all handlers of all subscribers
+ * share the same {@link EventBus.Handler} implementation.
+ *
+ * Additional parameters are resolved using the {@link ParameterResolver
+ * ParameterResolvers}, the suppliers are bound to the dispatcher as constant call
+ * sites. {@link ParameterResolver.Constant Constants} are bound as the value itself.
  *
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
 final class HandlerSynthesizer extends ReflectiveHandlerFactory {
 
-    private static final Logger log = LoggerFactory.getLogger(HandlerSynthesizer.class);
-    public static final Supplier[] NO_INJECTIONS = new Supplier[0];
+    private static final HandlerHolder[] NO_HANDLERS = new HandlerHolder[0];
+    private static final MethodHandle SUPPLIER_GET;
+    static {
+        try {
+            SUPPLIER_GET = MethodHandles.publicLookup().findVirtual(Supplier.class, "get", MethodType.methodType(Object.class));
+        }
+        catch ( NoSuchMethodException | IllegalAccessException e ) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final ParameterResolver[] resolvers;
 
     private final ClassValue<Synthesizer> synthesizers = new ClassValue<Synthesizer>() {
         @Override
         protected Synthesizer computeValue(Class<?> type) {
-            return new Synthesizer(type);
+            return new Synthesizer(type, resolvers);
         }
     };
 
     HandlerSynthesizer() {
+        this(new ParameterResolver[0]);
+    }
+
+    /**
+     * @param resolvers The resolvers for additional parameters, they're asked in order
+     *                  before the {@link StandardParameterResolver}.
+     */
+    HandlerSynthesizer(ParameterResolver[] resolvers) {
+        this.resolvers = new ParameterResolver[resolvers.length + 1];
+        System.arraycopy(resolvers, 0, this.resolvers, 0, resolvers.length);
+        this.resolvers[resolvers.length] = StandardParameterResolver.INSTANCE;
     }
 
     HandlerHolder[] handlers(Object subscriber) {
-        Synthesizer synthesizer = synthesizers.get(subscriber.getClass());
-        HandlerHolder[] handlers = new HandlerHolder[synthesizer.subscriptions.length];
-        for ( int i = 0; i < synthesizer.subscriptions.length; i++ ) {
-            Synthesizer.MethodSubscription subscription = synthesizer.subscriptions[i];
-            handlers[i] = new HandlerHolder(
-                    subscription.eventType.getRawType(),
-                    synthesizer.factory(subscription, $Factory.class)
-                            .newInstance(subscriber, subscription.injections));
-        }
-        return handlers;
+        CompiledHandlers<?> dispatcher = synthesizers.get(subscriber.getClass()).dispatcher;
+        return dispatcher == null ? NO_HANDLERS : dispatcher.handlers(subscriber);
     }
 
-    private class Synthesizer extends ClassSynthesizer {
-        private final Class<?> receiverClass;
-        private final MethodSubscription[] subscriptions;
+    /**
+     * The name of the handler as `declaringClass#method(ParameterType, ...)`, with the
+     * simple names of the erased parameter types, so overloads get names of their own.
+     * {@link SubscribeProcessor} reports the same names for compiled handlers.
+     */
+    static String handlerName(java.lang.reflect.Method method) {
+        return method.getDeclaringClass().getName() + "#" + method.getName()
+                + Stream.of(method.getParameterTypes())
+                .map(Class::getSimpleName)
+                .collect(Collectors.joining(", ", "(", ")"));
+    }
+
+    private static class Synthesizer extends ClassSynthesizer {
 
-        public Synthesizer(Class<?> receiverClass) {
+        private final CompiledHandlers<?> dispatcher;
+
+        public Synthesizer(Class<?> receiverClass, ParameterResolver[] resolvers) {
             super(receiverClass.getClassLoader());
-            this.receiverClass = receiverClass;
-            subscriptions = Reflection.allMethods(receiverClass, EXCLUDE_INTERFACES).stream()
+            MethodSubscription[] subscriptions = Reflection.allMethods(receiverClass, EXCLUDE_INTERFACES).stream()
                     .filter(Reflection.Predicates.notOverridden())
                     .filter(m -> m.getAnnotation(Subscribe.class) != null)
-                    .map(MethodSubscription::new)
-                    .peek(this::linkGenerator)
+                    .map(m -> new MethodSubscription(m, resolvers))
                     .toArray(MethodSubscription[]::new);
-
+            if ( subscriptions.length == 0 ) {
+                dispatcher = null;
+                return;
+            }
+            Dispatcher generator = new Dispatcher(receiverClass, subscriptions);
+            linkGenerator(generator);
+            Class<?>[] eventTypes = new Class<?>[subscriptions.length];
+            String[] names = new String[subscriptions.length];
+            boolean[] cheap = new boolean[subscriptions.length];
+            for ( int i = 0; i < subscriptions.length; i++ ) {
+                eventTypes[i] = subscriptions[i].eventType.getRawType();
+                names[i] = handlerName(subscriptions[i].method);
+                cheap[i] = subscriptions[i].method.getAnnotation(Subscribe.class).cheap();
+            }
+            try {
+                dispatcher = (CompiledHandlers<?>)load(generator)
+                        .getConstructor(Class.class, Class[].class, String[].class, boolean[].class)
+                        .newInstance(receiverClass, eventTypes, names, cheap);
+            }
+            catch ( ReflectiveOperationException e ) {
+                throw new ClassSynthesizerException("Cannot instantiate event dispatcher for " + receiverClass, e);
+            }
         }
 
-        private class MethodSubscription extends ClassGenerator implements Opcodes {
+    }
 
-            private final java.lang.reflect.Method method;
-            private final MethodHandle methodHandle;
-            private final Type subscriberType;
+    private static final class MethodSubscription {
 
-            private final Supplier<?>[] injections = NO_INJECTIONS;
-            private final TypeToken<?> eventType;
-            private final boolean injectBus;
+        private final java.lang.reflect.Method method;
+        private final MethodHandle methodHandle;
+        private final Type subscriberType;
 
-            private MethodSubscription(java.lang.reflect.Method method) {
-                super(classifiedType(method.getDeclaringClass(), "EventSubscriber"));
-                configure()
-                        .interfaces(EventBus.Handler.class)
-                        .factoryBaseClass($Factory.class)
-                        .access(ACC_FINAL);
-                this.method = method;
-                method.setAccessible(true);
-                try {
-                    methodHandle = MethodHandles.lookup().unreflect(method);
-                    prebind("handleEvent", methodHandle);
-                }
-                catch ( IllegalAccessException e ) {
-                    throw new UnreachableCodeError(method + " should have been set accessible", e);
-                }
-                subscriberType = getType(method.getDeclaringClass());
-                //
-                Parameter[] parameters = method.getParameters();
-                if ( parameters.length == 0 ) {
+        /**
+         * Method handles returning the values of the additional parameters.
+         */
+        private final MethodHandle[] injections;
+        private final TypeToken<?> eventType;
+        private final boolean injectBus;
+
+        private MethodSubscription(java.lang.reflect.Method method, ParameterResolver[] resolvers) {
+            this.method = method;
+            method.setAccessible(true);
+            try {
+                methodHandle = MethodHandles.lookup().unreflect(method);
+            }
+            catch ( IllegalAccessException e ) {
+                throw new UnreachableCodeError(method + " should have been set accessible", e);
+            }
+            subscriberType = getType(method.getDeclaringClass());
+            //
+            Parameter[] parameters = method.getParameters();
+            if ( parameters.length == 0 ) {
+                throw new SubscriptionException(method + ": No event argument");
+            }
+            injectBus = EventBus.class.equals(parameters[0].getType());
+            int injectionOffset;
+            if ( injectBus ) {
+                if ( parameters.length < 2 ) {
                     throw new SubscriptionException(method + ": No event argument");
                 }
-                injectBus = EventBus.class.equals(parameters[0].getType());
-                int injectionOffset;
-                if ( injectBus ) {
-                    if ( parameters.length < 2 ) {
-                        throw new SubscriptionException(method + ": No event argument");
-                    }
-                    injectionOffset = 2;
-                }
-                else {
-                    injectionOffset = 1;
-                }
-                eventType = TypeToken.of(parameters[injectBus ? 1 : 0].getParameterizedType());
-                ParallelEventBus.checkEventType(method, eventType);
-                // [INJECTIONS]
-                //injections = new Supplier<?>[parameters.length - injectionOffset];
-                //for ( int i = injectionOffset; i < parameters.length; i++ ) {
-                //    Parameter parameter = parameters[i];
-                //    injections[i - injectionOffset] = injection(parameter);
-                //}
+                injectionOffset = 2;
             }
-
-            //[INJECTIONS]
-            //private Supplier<?> injection(Parameter parameter) {
-            //    if ( EventBus.class.isAssignableFrom(parameter.getType()) ) {
-            //        return null;
-            //    }
-            //    return Injections.of(injector, parameter, parameter.getParameterizedType());
-            //}
-
-            @Override
-            protected void generate() {
-                field(ACC_PRIVATE + ACC_FINAL, "subscriber", subscriberType).visitEnd();
-                field(ACC_PRIVATE + ACC_FINAL, "injections", getType(Supplier[].class)).visitEnd();
-                genConstructor();
-                genHandler();
+            else {
+                injectionOffset = 1;
             }
-
-            private void genConstructor() {
-                GeneratorAdapter gen = method(ACC_PRIVATE, getMethod("void <init>(java.lang.Object,java.util.function.Supplier[])"));
-                gen.visitCode();
-                gen.loadThis();
-                //S: this
-                gen.invokeConstructor(superType(), getMethod("void <init>()"));
-                //S:
-                gen.loadThis();
-                //S: this
-                gen.loadArg(0);
-                //S: this, subscriber
-                gen.checkCast(subscriberType);
-                gen.putField(targetType(), "subscriber", subscriberType);
-                //S:
-                gen.loadThis();
-                //S: this
-                gen.loadArg(1);
-                //S: this, supplier[]
-                gen.checkCast(getType(Supplier[].class));
-                gen.putField(targetType(), "injections", getType(Supplier[].class));
-                //S: this, supplier[]
-                gen.returnValue();
-                gen.endMethod();
+            eventType = TypeToken.of(parameters[injectBus ? 1 : 0].getParameterizedType());
+            ParallelEventBus.checkEventType(method, eventType);
+            injections = new MethodHandle[parameters.length - injectionOffset];
+            for ( int i = injectionOffset; i < parameters.length; i++ ) {
+                injections[i - injectionOffset] = injection(parameters[i], resolvers);
             }
+        }
 
-            private void genHandler() {
-                GeneratorAdapter gen = method(ACC_PUBLIC, getMethod("void handleEvent(" + EventBus.class.getName() + ",java.lang.Object)"), getType(Exception.class));
-                gen.visitCode();
-                gen.loadThis();
-                //S: this
-                gen.getField(targetType(), "subscriber", subscriberType);
-                //S: subscriber
-                if ( injectBus ) {
-                    gen.loadArg(0);
-                    //gen.checkCast(getType(EventBus.class));
+        private MethodHandle injection(Parameter parameter, ParameterResolver[] resolvers) {
+            for ( ParameterResolver resolver : resolvers ) {
+                Supplier<?> supplier = resolver.resolve(method, parameter);
+                if ( supplier == null ) {
+                    continue;
                 }
-                //S: subscriber, eventBus?
-                gen.loadArg(1);
-                //S: subscriber, eventBus?, event
-                gen.checkCast(getType(eventType.getRawType()));
-                int paramOffset = injectBus ? 2 : 1;
-                Parameter[] parameters = method.getParameters();
-                for ( int i = paramOffset; i < parameters.length; i++ ) {
-                    Parameter injected = parameters[i];
-                    gen.loadThis();
-                    //S: ... this
-                    gen.getField(targetType(), "injections", getType(Supplier[].class));
-                    //S: ... injections[]
-                    gen.push(i - paramOffset);
-                    //S: ... injections[], i
-                    gen.arrayLoad(getType(Supplier.class));
-                    //S: ... injections[i]
-                    gen.invokeInterface(getType(Supplier.class), getMethod("Object get()"));
-                    //S: .. injections[i].get()
-                    if ( injected.getType().isPrimitive() ) {
-                        Type t = getType(Primitives.wrap(injected.getType()));
-                        gen.checkCast(t);
-                        gen.unbox(getType(injected.getType()));
+                try {
+                    if ( supplier instanceof ParameterResolver.Constant ) {
+                        return MethodHandles.constant(parameter.getType(), supplier.get());
                     }
                     else {
-                        gen.checkCast(getType(injected.getType()));
+                        return SUPPLIER_GET.bindTo(supplier).asType(MethodType.methodType(parameter.getType()));
                     }
                 }
-                //S: this, eventBus?, event, injections*
-                gen.invokeDynamic("handleEvent", methodHandle.type().toMethodDescriptorString(), PreboundClassValues.CONSTANT_BOOTSTRAP);
-                gen.returnValue();
-                gen.endMethod();
+                catch ( ClassCastException | NullPointerException | IllegalArgumentException e ) {
+                    throw new SubscriptionException(method + ": Cannot inject " + supplier + " into " + parameter, e);
+                }
             }
-
+            throw new SubscriptionException(method + ": Cannot resolve " + parameter);
         }
+
     }
 
-    protected static abstract class $Factory {
-        protected abstract EventBus.Handler<?> newInstance(Object subscriber, Supplier[] injections);
+    private static final class Dispatcher extends ClassSynthesizer.ClassGenerator implements Opcodes {
+
+        private final MethodSubscription[] subscriptions;
+
+        private Dispatcher(Class<?> receiverClass, MethodSubscription[] subscriptions) {
+            super(classifiedType(receiverClass, "EventDispatcher"));
+            configure().superType(CompiledHandlers.class);
+            this.subscriptions = subscriptions;
+            for ( int i = 0; i < subscriptions.length; i++ ) {
+                prebind("handleEvent$" + i, subscriptions[i].methodHandle);
+                for ( int j = 0; j < subscriptions[i].injections.length; j++ ) {
+                    prebind("injection$" + i + "$" + j, subscriptions[i].injections[j]);
+                }
+            }
+        }
+
+        @Override
+        protected void generate() {
+            genConstructor();
+            genHandler();
+        }
+
+        private void genConstructor() {
+            GeneratorAdapter gen = method(ACC_PUBLIC, getMethod("void <init>(java.lang.Class,java.lang.Class[],java.lang.String[],boolean[])"));
+            gen.visitCode();
+            gen.loadThis();
+            gen.loadArgs();
+            //S: this, subscriberClass, eventTypes, names, cheap
+            gen.invokeConstructor(superType(), getMethod("void <init>(java.lang.Class,java.lang.Class[],java.lang.String[],boolean[])"));
+            gen.returnValue();
+            gen.endMethod();
+        }
+
+        private void genHandler() {
+            GeneratorAdapter gen = method(ACC_PROTECTED, getMethod("void handleEvent(java.lang.Object,int," + EventBus.class.getName() + ",java.lang.Object)"), getType(Exception.class));
+            gen.visitCode();
+            int[] keys = new int[subscriptions.length];
+            for ( int i = 0; i < keys.length; i++ ) {
+                keys[i] = i;
+            }
+            gen.loadArg(1);
+            //S: index
+            gen.tableSwitch(keys, new TableSwitchGenerator() {
+                @Override
+                public void generateCase(int key, Label end) {
+                    genInvocation(gen, key);
+                    gen.returnValue();
+                }
+                @Override
+                public void generateDefault() {
+                    gen.throwException(getType(IndexOutOfBoundsException.class), "Handler index");
+                }
+            });
+            gen.endMethod();
+        }
+
+        private void genInvocation(GeneratorAdapter gen, int index) {
+            MethodSubscription subscription = subscriptions[index];
+            gen.loadArg(0);
+            //S: subscriber
+            gen.checkCast(subscription.subscriberType);
+            if ( subscription.injectBus ) {
+                gen.loadArg(2);
+            }
+            //S: subscriber, eventBus?
+            gen.loadArg(3);
+            //S: subscriber, eventBus?, event
+            gen.checkCast(getType(subscription.eventType.getRawType()));
+            for ( int i = 0; i < subscription.injections.length; i++ ) {
+                gen.invokeDynamic("injection$" + index + "$" + i, subscription.injections[i].type().toMethodDescriptorString(), PreboundClassValues.CONSTANT_BOOTSTRAP);
+                //S: ... injection
+            }
+            //S: subscriber, eventBus?, event, injections*
+            gen.invokeDynamic("handleEvent$" + index, subscription.methodHandle.type().toMethodDescriptorString(), PreboundClassValues.CONSTANT_BOOTSTRAP);
+        }
+
     }
 
 }
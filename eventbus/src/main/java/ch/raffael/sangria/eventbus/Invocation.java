@@ -24,42 +24,177 @@
 
 package ch.raffael.sangria.eventbus;
 
+import org.slf4j.Logger;
+
+import ch.raffael.sangria.logging.Logging;
+
+
 /**
 * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
 */
-final class Invocation implements Runnable {
+final class Invocation implements Runnable, Cancellable, Prioritized {
+
+    private static final Logger log = Logging.logger();
+
+    /**
+     * The invocation the current thread is running.
+     */
+    private static final ThreadLocal<Invocation> CURRENT = new ThreadLocal<>();
 
     private final long serial;
     private final EventBus eventBus;
     private final Object event;
     private final EventBus.Handler handler;
+    private final String handlerName;
+    private final boolean cheap;
+    private final HandlerProfile profile;
+    /**
+     * `null` for fired events.
+     */
     private final ParallelEventCompletion<?> completion;
+    /**
+     * `null` if there's no context to apply.
+     */
+    private final EventContext context;
     private final boolean isAsync;
+    private final EventBusMetrics metrics;
+    private final long queuedAt;
+    private Subscriber.Submission submission = null;
 
-    Invocation(long serial, EventBus eventBus, Object event, EventBus.Handler handler, ParallelEventCompletion<?> completion, boolean isAsync) {
+    Invocation(long serial, EventBus eventBus, Object event, Subscriber.Subscription subscription, ParallelEventCompletion<?> completion, EventContext context, boolean isAsync, EventBusMetrics metrics) {
         this.serial = serial;
         this.eventBus = eventBus;
         this.event = event;
-        this.handler = handler;
+        this.handler = subscription.handler;
+        this.handlerName = subscription.name;
+        this.cheap = subscription.cheap;
+        this.profile = subscription.profile;
         this.completion = completion;
+        this.context = context;
         this.isAsync = isAsync;
+        this.metrics = metrics;
+        queuedAt = metrics.recordsLatencies() ? System.nanoTime() : 0;
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public void run() {
+        EventBusMetrics.Latencies latencies = null;
+        EventTracer.Trace trace = context == null ? null : context.trace;
+        boolean timed = profile != null || trace != null;
+        long start = 0;
+        if ( metrics.recordsLatencies() ) {
+            timed = true;
+            start = System.nanoTime();
+            latencies = metrics.latencies(event.getClass());
+            latencies.queueWait.record(start - queuedAt);
+        }
+        else if ( timed ) {
+            start = System.nanoTime();
+        }
         Throwable exception = null;
+        ContextPropagator.Scope scope = null;
+        Invocation outer = CURRENT.get();
+        CURRENT.set(this);
         try {
+            if ( context != null ) {
+                scope = context.apply();
+            }
             handler.handleEvent(eventBus, event);
         }
         catch ( Throwable e ) {
             exception = e;
         }
         finally {
-            completion.invocationComplete(handler, exception);
+            CURRENT.set(outer);
+            if ( scope != null ) {
+                try {
+                    scope.close();
+                }
+                catch ( RuntimeException e ) {
+                    log.error("Error restoring context after {}", this, e);
+                }
+            }
+            try {
+                if ( timed ) {
+                    long time = System.nanoTime() - start;
+                    if ( latencies != null ) {
+                        latencies.handler.record(time);
+                    }
+                    if ( profile != null ) {
+                        // may post a SlowHandlerEvent, which may fail
+                        metrics.handlerComplete(profile, eventBus, event, time, exception);
+                    }
+                    if ( trace != null ) {
+                        trace.record(handlerName, start, time, exception != null);
+                    }
+                }
+            }
+            catch ( RuntimeException e ) {
+                log.error("Error recording metrics of {}", this, e);
+            }
+            finally {
+                complete(exception);
+            }
         }
     }
 
+    /**
+     * @return The invocation the current thread is running, `null` if it isn't running
+     *         a handler.
+     */
+    static Invocation current() {
+        return CURRENT.get();
+    }
+
+    @Override
+    public void cancel(Throwable exception) {
+        complete(exception);
+    }
+
+    /**
+     * Complete the invocation without running it because a newer event replaced it.
+     */
+    void supersede() {
+        metrics.invocationSuperseded();
+        try {
+            if ( completion != null ) {
+                completion.invocationSuperseded(handler);
+            }
+        }
+        finally {
+            if ( submission != null ) {
+                submission.invocationFinished(this);
+            }
+        }
+    }
+
+    private void complete(Throwable exception) {
+        metrics.invocationComplete(exception);
+        try {
+            if ( completion != null ) {
+                completion.invocationComplete(handler, exception);
+            }
+            else if ( exception != null ) {
+                log.error("Exception in handler {} for fired event {}", handler, event, exception);
+            }
+        }
+        finally {
+            if ( submission != null ) {
+                submission.invocationFinished(this);
+            }
+        }
+    }
+
+    @Override
+    public int priority() {
+        return EventTypeInfo.of(event).priority;
+    }
+
+    void setSubmission(Subscriber.Submission submission) {
+        this.submission = submission;
+    }
+
     long getSerial() {
         return serial;
     }
@@ -84,6 +219,13 @@ final class Invocation implements Runnable {
         return handler;
     }
 
+    /**
+     * Whether the handler is {@link Subscribe#cheap() cheap}.
+     */
+    boolean isCheap() {
+        return cheap;
+    }
+
     @Override
     public String toString() {
         return "Invocation{completion=" + completion + ", handler=" + handler + "}";
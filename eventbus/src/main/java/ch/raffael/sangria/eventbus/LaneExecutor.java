@@ -0,0 +1,295 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.eventbus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+
+import ch.raffael.sangria.logging.Logging;
+
+
+/**
+ * An executor with one worker thread per lane. Each lane has a queue of pinned tasks
+ * that only its own worker will run and a deque of tasks that idle workers of other
+ * lanes may steal.
+ *
+ * Subscribers submit their ordered submissions pinned to the lane their identity hashes
+ * to, so they stay on one core. Everything else goes to the submitting worker's own lane
+ * or is distributed round-robin if submitted from outside.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class LaneExecutor extends AbstractExecutorService implements AffinityExecutor {
+
+    private static final Logger log = Logging.logger();
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+
+    private final Lane[] lanes;
+    private final ThreadLocal<Lane> currentLane = new ThreadLocal<>();
+    private final AtomicInteger roundRobin = new AtomicInteger();
+    private final CountDownLatch termination;
+    private volatile int runState = RUNNING;
+
+    LaneExecutor(int laneCount, ThreadFactory threadFactory) {
+        if ( laneCount <= 0 ) {
+            throw new IllegalArgumentException("laneCount(" + laneCount + ") <= 0");
+        }
+        termination = new CountDownLatch(laneCount);
+        lanes = new Lane[laneCount];
+        for ( int i = 0; i < laneCount; i++ ) {
+            lanes[i] = new Lane(i);
+        }
+        for ( Lane lane : lanes ) {
+            lane.thread = threadFactory.newThread(lane);
+            lane.thread.start();
+        }
+    }
+
+    int laneCount() {
+        return lanes.length;
+    }
+
+    int busyLaneCount() {
+        int count = 0;
+        for ( Lane lane : lanes ) {
+            if ( lane.busy ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    int queuedTaskCount() {
+        int count = 0;
+        for ( Lane lane : lanes ) {
+            count += lane.pinned.size() + lane.shared.size();
+        }
+        return count;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        checkRunning(task);
+        Lane lane = currentLane.get();
+        if ( lane == null ) {
+            lane = lanes[Math.floorMod(roundRobin.getAndIncrement(), lanes.length)];
+        }
+        lane.shared.offerLast(task);
+        recheckRunning(lane.shared, task);
+        lane.signal();
+        if ( lane.busy ) {
+            signalIdleLane(lane);
+        }
+    }
+
+    /**
+     * Execute the task on the lane the affinity maps to. Tasks pinned to the same lane
+     * run in the order they were submitted and are never stolen by other lanes.
+     */
+    @Override
+    public void execute(Runnable task, int affinity) {
+        checkRunning(task);
+        Lane lane = lanes[Math.floorMod(affinity, lanes.length)];
+        lane.pinned.offer(task);
+        recheckRunning(lane.pinned, task);
+        lane.signal();
+    }
+
+    private void checkRunning(Runnable task) {
+        if ( task == null ) {
+            throw new NullPointerException();
+        }
+        if ( runState != RUNNING ) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+    }
+
+    /**
+     * Take the task back and reject it if the executor has been shut down while it was
+     * being queued. If it's already gone, a lane or `shutdownNow()` took it, so it's
+     * been accepted.
+     */
+    private void recheckRunning(Queue<Runnable> queue, Runnable task) {
+        if ( runState != RUNNING && queue.remove(task) ) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+    }
+
+    private void signalIdleLane(Lane except) {
+        for ( Lane lane : lanes ) {
+            if ( lane != except && lane.parked ) {
+                lane.signal();
+                return;
+            }
+        }
+    }
+
+    private Runnable steal(Lane thief) {
+        int start = thief.index + 1;
+        for ( int i = 0; i < lanes.length - 1; i++ ) {
+            Runnable task = lanes[(start + i) % lanes.length].shared.pollFirst();
+            if ( task != null ) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void shutdown() {
+        if ( runState == RUNNING ) {
+            runState = SHUTDOWN;
+        }
+        for ( Lane lane : lanes ) {
+            lane.signal();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        runState = STOP;
+        List<Runnable> pending = new ArrayList<>();
+        for ( Lane lane : lanes ) {
+            drainTo(lane.pinned, pending);
+            drainTo(lane.shared, pending);
+            lane.thread.interrupt();
+            lane.signal();
+        }
+        return pending;
+    }
+
+    private static void drainTo(Queue<Runnable> queue, List<Runnable> target) {
+        Runnable task;
+        while ( (task = queue.poll()) != null ) {
+            target.add(task);
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return runState != RUNNING;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return termination.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return termination.await(timeout, unit);
+    }
+
+    private final class Lane implements Runnable {
+
+        private final int index;
+        private final Queue<Runnable> pinned = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedDeque<Runnable> shared = new ConcurrentLinkedDeque<>();
+        private volatile Thread thread;
+        private volatile boolean parked = false;
+        private volatile boolean busy = false;
+
+        private Lane(int index) {
+            this.index = index;
+        }
+
+        private void signal() {
+            if ( parked ) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private Runnable next() {
+            Runnable task = pinned.poll();
+            if ( task == null ) {
+                task = shared.pollFirst();
+            }
+            if ( task == null ) {
+                task = steal(this);
+            }
+            return task;
+        }
+
+        @Override
+        public void run() {
+            currentLane.set(this);
+            try {
+                while ( runState != STOP ) {
+                    Runnable task = next();
+                    if ( task == null ) {
+                        busy = false;
+                        parked = true;
+                        // re-check after announcing that we're about to park
+                        task = next();
+                        if ( task == null ) {
+                            if ( runState != RUNNING ) {
+                                break;
+                            }
+                            // a handler may have left the interrupted flag set
+                            Thread.interrupted();
+                            LockSupport.park(this);
+                            parked = false;
+                            continue;
+                        }
+                        parked = false;
+                    }
+                    busy = true;
+                    try {
+                        task.run();
+                    }
+                    catch ( Throwable e ) {
+                        log.error("Uncaught exception in lane " + index, e);
+                    }
+                }
+            }
+            finally {
+                parked = false;
+                busy = false;
+                termination.countDown();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Lane{" + index + "}";
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+
+/**
+ * A single producer, single consumer ring buffer of byte records in a memory-mapped
+ * file, for passing records between processes on the same host.
+ *
+ * The file starts with a header holding the capacity and the write and read
+ * positions, each on its own cache line. Positions grow monotonically, records are
+ * 8-byte aligned and consist of their length (`int`) followed by the payload. A
+ * length of -1 marks padding up to the end of the buffer if a record didn't fit.
+ * Written records become visible to the consumer when the producer publishes its
+ * write position, so several records can be published at once.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class MappedRingBuffer {
+
+    private static final int MAGIC = 0x53524231;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int WRITE_POSITION_OFFSET = 64;
+    private static final int READ_POSITION_OFFSET = 128;
+    private static final int HEADER_SIZE = 192;
+    private static final int LENGTH_SIZE = 4;
+    private static final int PADDING = -1;
+
+    private static volatile int fence;
+
+    private final MappedByteBuffer header;
+    private final ByteBuffer data;
+    private final int capacity;
+    private final int mask;
+    /**
+     * The producer's or consumer's own position, depending on the side this instance
+     * is used for.
+     */
+    private long position;
+    private long cachedReadPosition;
+
+    MappedRingBuffer(Path file, int capacity) throws IOException {
+        if ( capacity < 4096 || Integer.bitCount(capacity) != 1 ) {
+            throw new IllegalArgumentException("Capacity must be a power of 2 >= 4096: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        MappedByteBuffer buffer;
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE) ) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        }
+        header = buffer;
+        buffer.position(HEADER_SIZE);
+        data = buffer.slice();
+        if ( header.getInt(MAGIC_OFFSET) == 0 ) {
+            header.putInt(CAPACITY_OFFSET, capacity);
+            fence();
+            header.putInt(MAGIC_OFFSET, MAGIC);
+        }
+        else if ( header.getInt(MAGIC_OFFSET) != MAGIC ) {
+            throw new IOException(file + ": Not a ring buffer");
+        }
+        else if ( header.getInt(CAPACITY_OFFSET) != capacity ) {
+            throw new IOException(file + ": Capacity mismatch, expected " + capacity + ", found " + header.getInt(CAPACITY_OFFSET));
+        }
+    }
+
+    /**
+     * Prepare this instance for producing records, continuing after the last
+     * published record.
+     */
+    MappedRingBuffer producer() {
+        position = header.getLong(WRITE_POSITION_OFFSET);
+        cachedReadPosition = header.getLong(READ_POSITION_OFFSET);
+        return this;
+    }
+
+    /**
+     * Prepare this instance for consuming records, continuing after the last consumed
+     * record.
+     */
+    MappedRingBuffer consumer() {
+        position = header.getLong(READ_POSITION_OFFSET);
+        return this;
+    }
+
+    int maxRecordSize() {
+        return capacity / 2 - LENGTH_SIZE;
+    }
+
+    /**
+     * Write a record without publishing it.
+     *
+     * @return `false`, if there's no room for the record.
+     */
+    boolean write(byte[] payload) {
+        if ( payload.length > maxRecordSize() ) {
+            throw new IllegalArgumentException("Record too large: " + payload.length + " > " + maxRecordSize());
+        }
+        int size = align(LENGTH_SIZE + payload.length);
+        int index = (int)(position & mask);
+        int padding = capacity - index < size ? capacity - index : 0;
+        if ( position + padding + size - cachedReadPosition > capacity ) {
+            cachedReadPosition = header.getLong(READ_POSITION_OFFSET);
+            fence();
+            if ( position + padding + size - cachedReadPosition > capacity ) {
+                return false;
+            }
+        }
+        if ( padding > 0 ) {
+            data.putInt(index, PADDING);
+            position += padding;
+            index = 0;
+        }
+        data.putInt(index, payload.length);
+        ByteBuffer target = data.duplicate();
+        target.position(index + LENGTH_SIZE);
+        target.put(payload);
+        position += size;
+        return true;
+    }
+
+    /**
+     * Make the records written so far visible to the consumer.
+     */
+    void publish() {
+        fence();
+        header.putLong(WRITE_POSITION_OFFSET, position);
+    }
+
+    /**
+     * Read up to `max` published records and release their room to the producer.
+     *
+     * @return The number of records read.
+     */
+    int read(Consumer<byte[]> consumer, int max) {
+        long writePosition = header.getLong(WRITE_POSITION_OFFSET);
+        fence();
+        int count = 0;
+        try {
+            while ( position < writePosition && count < max ) {
+                int index = (int)(position & mask);
+                int length = data.getInt(index);
+                if ( length == PADDING ) {
+                    position += capacity - index;
+                    continue;
+                }
+                byte[] payload = new byte[length];
+                ByteBuffer source = data.duplicate();
+                source.position(index + LENGTH_SIZE);
+                source.get(payload);
+                position += align(LENGTH_SIZE + length);
+                count++;
+                consumer.accept(payload);
+            }
+        }
+        finally {
+            // release the records consumed so far even if the consumer failed
+            if ( count > 0 ) {
+                fence();
+                header.putLong(READ_POSITION_OFFSET, position);
+            }
+        }
+        return count;
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * A full fence for the plain accesses to the mapping: the volatile write keeps
+     * earlier accesses before it, the volatile read keeps later accesses after it.
+     */
+    private static void fence() {
+        fence = 0;
+        if ( fence != 0 ) {
+            throw new AssertionError();
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.eventbus;
+
+/**
+ * Posted instead of delivering an event to a subscriber whose mailbox is full, if the
+ * overflow policy is {@link OverflowPolicy#OVERFLOW_EVENT}.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@Event(async = true)
+public class OverflowEvent {
+
+    private final EventCompletion<?> eventCompletion;
+    private final Object subscriber;
+
+    public OverflowEvent(EventCompletion<?> eventCompletion, Object subscriber) {
+        this.eventCompletion = eventCompletion;
+        this.subscriber = subscriber;
+    }
+
+    @Override
+    public String toString() {
+        return "OverflowEvent{" + eventCompletion + "->" + subscriber + "}";
+    }
+
+    /**
+     * The completion of the event that overflowed, `null` for fired events.
+     */
+    public EventCompletion<?> getEventCompletion() {
+        return eventCompletion;
+    }
+
+    /**
+     * The subscriber that didn't receive the event.
+     */
+    public Object getSubscriber() {
+        return subscriber;
+    }
+
+}
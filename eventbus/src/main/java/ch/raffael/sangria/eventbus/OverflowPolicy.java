@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.eventbus;
+
+/**
+ * What to do if a bounded queue of the event bus is full.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Block the posting thread until there's room in the queue. Worker threads of the
+     * event bus never block, they exceed the capacity instead to avoid deadlocks.
+     */
+    BLOCK,
+
+    /**
+     * Reject the delivery. For subscriber mailboxes, `post()` throws an
+     * {@link EventOverflowException} after the event has been delivered to all other
+     * subscribers. For the executor queue, the rejected invocations fail with an
+     * `EventOverflowException` that will be reported by the event's completion.
+     */
+    FAIL,
+
+    /**
+     * Drop the oldest delivery that hasn't been started yet to make room for the new
+     * one. The invocations of the dropped delivery fail with an
+     * {@link EventOverflowException}. For a prioritized executor queue, the oldest
+     * delivery of the lowest priority is dropped.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Don't deliver the event to the subscriber, post an {@link OverflowEvent} instead.
+     * The event's completion reports an {@link EventOverflowException} for the
+     * subscriber's handlers. Overflowing `OverflowEvents` are dropped. For the executor
+     * queue, this behaves like {@link #FAIL}.
+     */
+    OVERFLOW_EVENT
+
+}
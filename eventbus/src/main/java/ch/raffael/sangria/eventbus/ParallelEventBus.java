@@ -24,68 +24,298 @@
 
 package ch.raffael.sangria.eventbus;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.function.IntConsumer;
 import java.util.stream.Stream;
 
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+
+import ch.raffael.sangria.libs.guava.collect.ImmutableList;
 import ch.raffael.sangria.libs.guava.collect.MapMaker;
 import ch.raffael.sangria.libs.guava.reflect.TypeToken;
 
-import ch.raffael.sangria.dynamic.Reflection;
-
-import static ch.raffael.sangria.dynamic.Reflection.IterationMode.EXCLUDE_INTERFACES;
+import ch.raffael.sangria.logging.Logging;
 
 
 /**
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
-//[JMX] @MBean(name = {
-//        @MBean.Property(name = "name", generator = ParallelEventBus.JmxName.class),
-//        @MBean.Property(name = "serial", generator = ParallelEventBus.JmxSerial.class) })
 final class ParallelEventBus implements EventBus, ParallelEventBusMXBean {
 
-    private static final ClassValue<Boolean> MIXED_HANDLER_CACHE = new ClassValue<Boolean>() {
-        @Override
-        protected Boolean computeValue(Class<?> type) {
-            return Reflection.allMethods(type, EXCLUDE_INTERFACES).stream()
-                    .filter(Reflection.Predicates.notOverridden())
-                    .anyMatch(Reflection.Predicates.annotatedWith(Subscribe.class));
-        }
-    };
     private static final AtomicLong BUS_SERIAL = new AtomicLong();
+    private static final String JMX_DOMAIN = "ch.raffael.sangria.eventbus";
+    private static final Logger log = Logging.logger();
 
     private final ReflectiveHandlerFactory reflectiveHandlerFactory;
+    private final int subscriptionConcurrencyLevel;
 
-    private final ConcurrentMap<Object, Subscriber> subscribers;
+    private final ConcurrentMap<SubscriberKey, Subscriber> subscribers;
+    private final DispatchIndex dispatchIndex;
     private final AtomicLong eventSerial = new AtomicLong();
 
     private final long serial = BUS_SERIAL.incrementAndGet();
     private final String name;
     private final ExecutorService executor;
+    private final AffinityExecutor affinityExecutor;
+    /**
+     * The fork-join pool running the handlers, `null` if it's another kind of pool.
+     */
+    private final ForkJoinPool forkJoinPool;
     private final IntConsumer subscriberCountConsumer;
+    private final ExecutorStats executorStats;
+    private final int maxDrainBatch;
+    private final int mailboxCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final boolean inlineCheapHandlers;
+    private final EventBusMetrics metrics;
+    private final EventJournal journal;
+    private final ContextPropagator[] contextPropagators;
+    private volatile ObjectName objectName = null;
+
+    private final ParallelEventBus parent;
+    /**
+     * The buses an event posted to this bus is dispatched to: this bus, followed by its
+     * ancestors as far as the events propagate.
+     */
+    private final ParallelEventBus[] dispatchChain;
+    private final Set<ParallelEventBus> children = Collections.newSetFromMap(new MapMaker().weakKeys().<ParallelEventBus, Boolean>makeMap());
 
-    protected ParallelEventBus(ReflectiveHandlerFactory reflectiveHandlerFactory, String name, int subscriptionConcurrencyLevel, ExecutorService executor, IntConsumer subscriberCountConsumer) {
+    protected ParallelEventBus(ReflectiveHandlerFactory reflectiveHandlerFactory, String name, int subscriptionConcurrencyLevel, ExecutorService executor, ExecutorStats executorStats, IntConsumer subscriberCountConsumer, int maxDrainBatch, int mailboxCapacity, OverflowPolicy overflowPolicy, boolean inlineCheapHandlers, EventBusMetrics metrics, EventJournal journal, ContextPropagator[] contextPropagators) {
+        this(null, false, reflectiveHandlerFactory, name, subscriptionConcurrencyLevel, executor,
+                executor instanceof LaneExecutor ? (LaneExecutor)executor : null, executorStats,
+                subscriberCountConsumer, maxDrainBatch, mailboxCapacity, overflowPolicy, inlineCheapHandlers, metrics, journal, contextPropagators);
+    }
+
+    private ParallelEventBus(ParallelEventBus parent, String name, boolean propagate) {
+        this(parent, propagate, parent.reflectiveHandlerFactory, parent.name + "/" + name, parent.subscriptionConcurrencyLevel,
+                new ChildExecutor(parent.executor), parent.affinityExecutor, parent.executorStats,
+                null, parent.maxDrainBatch, parent.mailboxCapacity, parent.overflowPolicy, parent.inlineCheapHandlers, parent.metrics.forChild(), null, parent.contextPropagators);
+    }
+
+    private ParallelEventBus(ParallelEventBus parent, boolean propagate, ReflectiveHandlerFactory reflectiveHandlerFactory, String name, int subscriptionConcurrencyLevel, ExecutorService executor, AffinityExecutor parentAffinityExecutor, ExecutorStats executorStats, IntConsumer subscriberCountConsumer, int maxDrainBatch, int mailboxCapacity, OverflowPolicy overflowPolicy, boolean inlineCheapHandlers, EventBusMetrics metrics, EventJournal journal, ContextPropagator[] contextPropagators) {
+        this.parent = parent;
         this.reflectiveHandlerFactory = reflectiveHandlerFactory;
+        this.subscriptionConcurrencyLevel = subscriptionConcurrencyLevel;
         this.name = name;
         this.executor = executor;
+        // children pin through their ChildExecutor as long as the root pool has lanes
+        this.affinityExecutor = parentAffinityExecutor != null ? (AffinityExecutor)executor : null;
+        if ( parent != null ) {
+            forkJoinPool = parent.forkJoinPool;
+        }
+        else {
+            forkJoinPool = executor instanceof ForkJoinPool ? (ForkJoinPool)executor : null;
+        }
+        this.executorStats = executorStats;
+        this.maxDrainBatch = maxDrainBatch;
+        this.mailboxCapacity = mailboxCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.inlineCheapHandlers = inlineCheapHandlers;
+        this.metrics = metrics;
+        this.journal = journal;
+        this.contextPropagators = contextPropagators;
         this.subscriberCountConsumer = subscriberCountConsumer;
-        subscribers = new MapMaker()
-                .concurrencyLevel(subscriptionConcurrencyLevel).weakKeys().makeMap();
+        subscribers = new ConcurrentHashMap<>(16, 0.75f, subscriptionConcurrencyLevel);
+        dispatchIndex = new DispatchIndex(subscribers.values());
+        if ( parent != null && propagate ) {
+            dispatchChain = new ParallelEventBus[parent.dispatchChain.length + 1];
+            dispatchChain[0] = this;
+            System.arraycopy(parent.dispatchChain, 0, dispatchChain, 1, parent.dispatchChain.length);
+        }
+        else {
+            dispatchChain = new ParallelEventBus[] { this };
+        }
     }
 
     @Override
     public <E> EventCompletion<E> post(E event) {
-        long serial = eventSerial.getAndIncrement();
+        EventJournal.Record record = journal(event);
         ParallelEventCompletion<E> completion = new ParallelEventCompletion<>(this, event);
-        subscribers.values().stream().forEach(subscriber -> subscriber.post(serial, this, event, completion));
+        dispatch(event, completion, record);
+        return completion;
+    }
+
+    @Override
+    public <E> EventCompletion<List<E>> postAll(Iterable<? extends E> events) {
+        return postAll(ImmutableList.copyOf(events), null);
+    }
+
+    /**
+     * @param replayed The journal records of replayed events, `null` to journal the
+     *                 durable events.
+     */
+    private <E> EventCompletion<List<E>> postAll(List<E> eventList, List<EventJournal.Record> replayed) {
+        List<EventJournal.Record> records = replayed;
+        if ( records == null && journal != null ) {
+            for ( E event : eventList ) {
+                EventJournal.Record record = journal(event);
+                if ( record != null ) {
+                    if ( records == null ) {
+                        records = new ArrayList<>();
+                    }
+                    records.add(record);
+                }
+            }
+        }
+        ParallelEventCompletion<List<E>> completion = new ParallelEventCompletion<>(this, eventList);
+        Map<Class<?>, DispatchIndex.Target[][]> targetsByClass = new HashMap<>();
+        Map<Subscriber, Subscriber.Batch> batches = new LinkedHashMap<>();
+        for ( E event : eventList ) {
+            long serial = eventSerial.getAndIncrement();
+            DispatchIndex.Target[][] chainTargets = targetsByClass.computeIfAbsent(event.getClass(), this::chainTargets);
+            EventContext context = EventContext.capture(contextPropagators, metrics.tracer(), event);
+            boolean dead = true;
+            for ( int i = 0; i < dispatchChain.length; i++ ) {
+                dead &= chainTargets[i].length == 0;
+                for ( DispatchIndex.Target target : chainTargets[i] ) {
+                    batches.computeIfAbsent(target.subscriber, Subscriber::batch)
+                            .add(serial, dispatchChain[i], event, target.subscriptions, completion, context);
+                }
+            }
+            metrics.eventPosted(dead);
+        }
+        boolean overflow = false;
+        for ( Subscriber.Batch batch : batches.values() ) {
+            if ( !batch.submit() ) {
+                overflow = true;
+            }
+        }
         completion.allInvocationsScheduled();
+        if ( records != null ) {
+            List<EventJournal.Record> acknowledge = records;
+            completion.afterCompletion(c -> acknowledge.forEach(journal::acknowledge));
+        }
+        if ( overflow ) {
+            throw new EventOverflowException("Mailbox overflow posting " + eventList.size() + " events", completion);
+        }
         return completion;
     }
 
+    @Override
+    public boolean fire(Object event) {
+        // durable events need a completion to know when to acknowledge them
+        EventJournal.Record record = journal(event);
+        return dispatch(event, record == null ? null : new ParallelEventCompletion<>(this, event), record);
+    }
+
+    /**
+     * @param completion The completion to report to, `null` for fired events.
+     * @param record     The journal record to acknowledge on completion, if any.
+     *
+     * @return `false`, if the event is dead.
+     */
+    private boolean dispatch(Object event, ParallelEventCompletion<?> completion, EventJournal.Record record) {
+        long serial = eventSerial.getAndIncrement();
+        EventContext context = EventContext.capture(contextPropagators, metrics.tracer(), event);
+        boolean overflow = false;
+        boolean dead = true;
+        for ( ParallelEventBus bus : dispatchChain ) {
+            DispatchIndex.Target[] targets = bus.dispatchIndex.targets(event.getClass());
+            dead &= targets.length == 0;
+            for ( DispatchIndex.Target target : targets ) {
+                if ( !target.subscriber.post(serial, bus, event, target.subscriptions, completion, context) ) {
+                    overflow = true;
+                }
+            }
+        }
+        metrics.eventPosted(dead);
+        if ( completion != null ) {
+            completion.allInvocationsScheduled();
+            if ( record != null ) {
+                completion.afterCompletion(c -> journal.acknowledge(record));
+            }
+        }
+        if ( overflow ) {
+            throw completion == null
+                  ? new EventOverflowException("Mailbox overflow firing " + event)
+                  : new EventOverflowException("Mailbox overflow posting " + event, completion);
+        }
+        return !dead;
+    }
+
+    /**
+     * Append the event to the journal if it's durable.
+     *
+     * @return The journal record, `null` if the event hasn't been journaled.
+     */
+    private EventJournal.Record journal(Object event) {
+        if ( journal == null || !EventTypeInfo.of(event).durable ) {
+            return null;
+        }
+        try {
+            return journal.append(event);
+        }
+        catch ( IOException e ) {
+            throw new UncheckedIOException("Cannot journal event " + event, e);
+        }
+    }
+
+    @Override
+    public EventCompletion<List<Object>> replayJournal() {
+        if ( journal == null ) {
+            return postAll(Collections.emptyList(), Collections.emptyList());
+        }
+        List<Object> events = new ArrayList<>();
+        List<EventJournal.Record> records = new ArrayList<>();
+        for ( EventJournal.Record record : journal.takeUnacknowledged() ) {
+            try {
+                events.add(journal.read(record));
+                records.add(record);
+            }
+            catch ( IOException | RuntimeException e ) {
+                log.error("Cannot read journaled event, leaving it in the journal", e);
+            }
+        }
+        return postAll(events, records);
+    }
+
+    private DispatchIndex.Target[][] chainTargets(Class<?> eventClass) {
+        DispatchIndex.Target[][] targets = new DispatchIndex.Target[dispatchChain.length][];
+        for ( int i = 0; i < dispatchChain.length; i++ ) {
+            targets[i] = dispatchChain[i].dispatchIndex.targets(eventClass);
+        }
+        return targets;
+    }
+
+    @Override
+    public EventBus child(String name) {
+        return child(name, false);
+    }
+
+    @Override
+    public EventBus child(String name, boolean propagate) {
+        if ( executor.isShutdown() ) {
+            throw new IllegalStateException("Event bus " + this.name + " has been shut down");
+        }
+        ParallelEventBus child = new ParallelEventBus(this, name, propagate);
+        children.add(child);
+        if ( objectName != null ) {
+            child.registerMBean();
+        }
+        return child;
+    }
+
     @Override
     public void subscribe(Object object) {
         doSubscribe(object, false);
@@ -96,19 +326,56 @@ final class ParallelEventBus implements EventBus, ParallelEventBusMXBean {
         doSubscribe(object, true);
     }
 
+    @Override
+    public <T> void subscribe(Class<T> eventType, Handler<? super T> handler) {
+        checkEventType(handler, TypeToken.of(eventType));
+        subscribeHandler(handler, eventType, false);
+        reportSubscriberCount();
+    }
+
     @Override
     public void unsubscribe(Object object) {
-        subscribers.remove(object);
+        Subscriber subscriber = subscribers.remove(new SubscriberKey(object));
+        if ( subscriber != null ) {
+            dispatchIndex.invalidate(subscriber);
+        }
+    }
+
+    /**
+     * Called by the reaper thread when a weak subscriber has been garbage collected.
+     */
+    void subscriberCollected(SubscriberKey key) {
+        Subscriber subscriber = subscribers.remove(key);
+        if ( subscriber != null ) {
+            dispatchIndex.invalidate(subscriber);
+            subscriber.discardMailbox();
+            reportSubscriberCount();
+        }
     }
 
+    /**
+     * Shut down the children explicitly, their workers stop with ours anyway, but their
+     * MBeans would keep the whole family of buses alive.
+     */
     @Override
     public Shutdown shutdown() {
+        unregisterMBean();
+        detachFromParent();
+        // copy, shutting down a child removes it from the set
+        for ( ParallelEventBus child : new ArrayList<>(children) ) {
+            child.shutdown();
+        }
         executor.shutdown();
         return createShutdown();
     }
 
     @Override
     public Shutdown shutdownNow() {
+        unregisterMBean();
+        detachFromParent();
+        for ( ParallelEventBus child : new ArrayList<>(children) ) {
+            child.shutdownNow();
+        }
         executor.shutdownNow();
         return createShutdown();
     }
@@ -128,42 +395,239 @@ final class ParallelEventBus implements EventBus, ParallelEventBusMXBean {
 
     private void doSubscribe(Object object, boolean weak) {
         if ( object instanceof Handler ) {
-            if ( MIXED_HANDLER_CACHE.get(object.getClass()) ) {
+            SubscriberInfo info = SubscriberInfo.of(object.getClass());
+            if ( info.hasSubscribeMethods ) {
                 throw new IllegalArgumentException("Handler class " + object.getClass().getName() + " mixes handler interface and @Subscribe");
             }
-            Subscriber subscriber = subscribers.computeIfAbsent(object, handler -> new Subscriber(executor, handler, new Subscriber.Subscription[] {
-                    new Subscriber.Subscription(checkEventType(handler.getClass(), TypeToken.of(handler.getClass()).resolveType(Handler.class.getTypeParameters()[0])).getRawType(), (Handler)handler) }));
-            subscriber.setWeak(weak);
+            subscribeHandler((Handler<?>)object, checkEventType(object.getClass(), info.handlerEventType).getRawType(), weak);
         }
         else {
             //return object -> Stream.of(bridges)
             //        .map(bridge -> new Subscription(bridge.getEventType(), bridge.toHandler(object)))
             //        .toArray(Subscription[]::new);
-            Subscriber subscriber = subscribers.computeIfAbsent(object, obj -> new Subscriber(
-                    executor, object, Stream.of(reflectiveHandlerFactory.handlers(object))
-                    .map(holder -> new Subscriber.Subscription(holder.eventType, holder.handler))
+            Subscriber subscriber = subscribers.computeIfAbsent(new SubscriberKey(object, this), key -> new Subscriber(
+                    this, key, Stream.of(reflectiveHandlerFactory.handlers(object))
+                    .map(holder -> new Subscriber.Subscription(holder.eventType, holder.handler, holder.name, holder.cheap, metrics.handlerProfile(holder.name)))
                     .toArray(Subscriber.Subscription[]::new)));
             subscriber.setWeak(weak);
+            dispatchIndex.invalidate(subscriber);
+        }
+        reportSubscriberCount();
+    }
+
+    private void subscribeHandler(Handler<?> handler, Class<?> eventType, boolean weak) {
+        // the event type instead of the erased Object, one handler class may handle several types
+        String name = handler.getClass().getName() + "#handleEvent(EventBus, " + eventType.getSimpleName() + ")";
+        Subscriber subscriber = subscribers.computeIfAbsent(new SubscriberKey(handler, this), key -> new Subscriber(this, key, new Subscriber.Subscription[] {
+                new Subscriber.Subscription(eventType, new WeakHandlerWrapper<>(handler), name, false, metrics.handlerProfile(name)) }));
+        subscriber.setWeak(weak);
+        dispatchIndex.invalidate(subscriber);
+    }
+
+    private void detachFromParent() {
+        if ( parent != null && parent.children.remove(this) ) {
+            reportSubscriberCount();
+        }
+    }
+
+    /**
+     * Report the number of subscribers to the pool. The pool is shared by the whole
+     * family of buses, so it gets the subscribers of all children, too.
+     */
+    private void reportSubscriberCount() {
+        ParallelEventBus root = this;
+        while ( root.parent != null ) {
+            root = root.parent;
+        }
+        if ( root.subscriberCountConsumer != null ) {
+            root.subscriberCountConsumer.accept(root.familySubscriberCount());
+        }
+    }
+
+    private int familySubscriberCount() {
+        int count = subscribers.size();
+        for ( ParallelEventBus child : children ) {
+            count += child.familySubscriberCount();
+        }
+        return count;
+    }
+
+    @Override
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public int getExecutorQueueSize() {
+        return executorStats.queueSize();
+    }
+
+    @Override
+    public int getActiveThreads() {
+        return executorStats.activeThreads();
+    }
+
+    @Override
+    public long getPostedEvents() {
+        return metrics.getPostedEvents();
+    }
+
+    @Override
+    public long getDeadEvents() {
+        return metrics.getDeadEvents();
+    }
+
+    @Override
+    public long getInvocations() {
+        return metrics.getInvocations();
+    }
+
+    @Override
+    public long getFailedInvocations() {
+        return metrics.getFailedInvocations();
+    }
+
+    @Override
+    public long getSupersededInvocations() {
+        return metrics.getSupersededInvocations();
+    }
+
+    @Override
+    public Map<String, LatencyStats> getQueueWaitLatencies() {
+        return metrics.queueWaitLatencies();
+    }
+
+    @Override
+    public Map<String, LatencyStats> getHandlerLatencies() {
+        return metrics.handlerLatencies();
+    }
+
+    @Override
+    public List<HandlerStats> getSlowestHandlers(int limit) {
+        return metrics.slowestHandlers(limit);
+    }
+
+    @Override
+    public List<EventTrace> getRecentTraces() {
+        EventTracer tracer = metrics.tracer();
+        return tracer == null ? Collections.emptyList() : tracer.recentTraces();
+    }
+
+    ExecutorService executor() {
+        return executor;
+    }
+
+    ForkJoinPool forkJoinPool() {
+        return forkJoinPool;
+    }
+
+    /**
+     * The executor to pin a subscriber's submissions with, `null` if the pool doesn't
+     * have lanes.
+     */
+    AffinityExecutor affinityExecutor() {
+        return affinityExecutor;
+    }
+
+    int maxDrainBatch() {
+        return maxDrainBatch;
+    }
+
+    int mailboxCapacity() {
+        return mailboxCapacity;
+    }
+
+    OverflowPolicy overflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Whether {@link Subscribe#cheap() cheap} handlers run on the posting thread.
+     */
+    boolean inlineCheapHandlers() {
+        return inlineCheapHandlers;
+    }
+
+    EventBusMetrics metrics() {
+        return metrics;
+    }
+
+    void registerMBean() {
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=" + ParallelEventBus.class.getSimpleName()
+                    + ",name=" + ObjectName.quote(new JmxName().apply(this))
+                    + ",serial=" + new JmxSerial().apply(this));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
         }
-        if ( subscriberCountConsumer != null ) {
-            subscriberCountConsumer.accept(subscribers.size());
+        catch ( JMException e ) {
+            log.error("Cannot register MBean for {}", this, e);
         }
     }
 
+    private void unregisterMBean() {
+        ObjectName objectName = this.objectName;
+        if ( objectName != null ) {
+            this.objectName = null;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            catch ( InstanceNotFoundException e ) {
+                // already gone
+            }
+            catch ( JMException e ) {
+                log.error("Cannot unregister MBean {}", objectName, e);
+            }
+        }
+    }
+
+    @Override
+    public long getMailboxSize() {
+        long size = 0;
+        for ( Subscriber subscriber : subscribers.values() ) {
+            size += subscriber.mailboxSize();
+        }
+        return size;
+    }
+
+    @Override
+    public int getMaxMailboxSize() {
+        int max = 0;
+        for ( Subscriber subscriber : subscribers.values() ) {
+            max = Math.max(max, subscriber.mailboxSize());
+        }
+        return max;
+    }
+
     private Shutdown createShutdown() {
         return new Shutdown() {
             @Override
             public void await() throws InterruptedException {
                 executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                closeJournal();
             }
 
             @Override
             public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
-                return executor.awaitTermination(timeout, unit);
+                if ( executor.awaitTermination(timeout, unit) ) {
+                    closeJournal();
+                    return true;
+                }
+                return false;
             }
         };
     }
 
+    /**
+     * Close the journal once all events are done, any events not acknowledged by now
+     * stay in the journal for the next run.
+     */
+    private void closeJournal() {
+        if ( journal != null ) {
+            journal.close();
+        }
+    }
+
     static TypeToken<?> checkEventType(Object subscriber, TypeToken<?> eventType) {
         if ( eventType.getRawType().isPrimitive() ) {
             throw new SubscriptionException(subscriber + " -> " + eventType.getType() + ": Primitive events not supported");
@@ -182,6 +646,26 @@ final class ParallelEventBus implements EventBus, ParallelEventBusMXBean {
         return super.toString() + "{name='" + name + "'}";
     }
 
+    /**
+     * Whether the current thread runs handlers, either as worker of the pool or because
+     * it's running a handler inline.
+     *
+     * @param forkJoinPool The bus's fork-join pool, if any. Workers of other fork-join
+     *                     pools, e.g. the common pool, are just posters.
+     */
+    static boolean isWorkerThread(ForkJoinPool forkJoinPool) {
+        Thread thread = Thread.currentThread();
+        return thread instanceof WorkerThread
+                || (thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread)thread).getPool() == forkJoinPool)
+                || Invocation.current() != null;
+    }
+
+    static final class WorkerThread extends Thread {
+        WorkerThread(Runnable target) {
+            super(target);
+        }
+    }
+
     static class JmxName implements Function<ParallelEventBus, String> {
         @Override
         public String apply(ParallelEventBus parallelEventBus) {
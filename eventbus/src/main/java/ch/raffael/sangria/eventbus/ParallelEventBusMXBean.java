@@ -24,9 +24,73 @@
 
 package ch.raffael.sangria.eventbus;
 
+import java.util.List;
+import java.util.Map;
+
+
 /**
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
 public interface ParallelEventBusMXBean {
 
+    long getPostedEvents();
+
+    long getDeadEvents();
+
+    long getInvocations();
+
+    long getFailedInvocations();
+
+    /**
+     * Invocations skipped because a newer {@link Conflatable conflated} event replaced
+     * their event in the mailbox.
+     */
+    long getSupersededInvocations();
+
+    int getSubscriberCount();
+
+    /**
+     * The number of threads currently running tasks, -1 if unknown.
+     */
+    int getActiveThreads();
+
+    /**
+     * The number of tasks waiting in the executor's queue, -1 if unknown.
+     */
+    int getExecutorQueueSize();
+
+    /**
+     * The number of ordered deliveries waiting in or on their way out of the
+     * subscribers' mailboxes.
+     */
+    long getMailboxSize();
+
+    /**
+     * The size of the fullest mailbox.
+     */
+    int getMaxMailboxSize();
+
+    /**
+     * Time from posting to the start of the handler by event type, empty unless
+     * latencies are recorded.
+     */
+    Map<String, LatencyStats> getQueueWaitLatencies();
+
+    /**
+     * Handler execution time by event type, empty unless latencies are recorded.
+     */
+    Map<String, LatencyStats> getHandlerLatencies();
+
+    /**
+     * The handler methods with the longest invocations, longest first. Empty unless
+     * handlers are profiled.
+     */
+    List<HandlerStats> getSlowestHandlers(int limit);
+
+    /**
+     * The most recent traces of sampled events, oldest first. Empty unless tracing is
+     * enabled.
+     */
+    List<EventTrace> getRecentTraces();
+
 }
@@ -26,40 +26,76 @@ package ch.raffael.sangria.eventbus;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 
+import org.slf4j.Logger;
+
 import ch.raffael.sangria.libs.guava.collect.ImmutableList;
-import ch.raffael.sangria.libs.guava.util.concurrent.Uninterruptibles;
+
+import ch.raffael.sangria.commons.UnreachableCodeError;
+import ch.raffael.sangria.logging.Logging;
 
 
 /**
+ * Completion callbacks, waiting threads and futures are kept in a lock-free stack that
+ * is replaced by a sentinel once all of them have been notified. Nothing here blocks
+ * except the `await*()` methods.
+ *
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
 final class ParallelEventCompletion<T> implements EventCompletion<T> {
 
-    //private final SettableFuture<T> future = SettableFuture.create();
+    private static final Logger log = Logging.logger();
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<ParallelEventCompletion> PENDING_INVOCATIONS_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ParallelEventCompletion.class, "pendingInvocations");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ParallelEventCompletion, List> EXCEPTIONS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(ParallelEventCompletion.class, List.class, "exceptions");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<ParallelEventCompletion> SUPERSEDED_INVOCATIONS_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ParallelEventCompletion.class, "supersededInvocations");
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<ParallelEventCompletion> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ParallelEventCompletion.class, "state");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ParallelEventCompletion, Node> CALLBACKS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(ParallelEventCompletion.class, Node.class, "callbacks");
+
+    private static final int DELIVERY = 0;
+    private static final int COMPLETE = 1;
+
+    /**
+     * Replaces the callback stack once all callbacks have been notified.
+     */
+    private static final Node NOTIFIED = new Node(null);
+
     private final EventBus eventBus;
     private final T event;
 
-    private final Queue<Consumer<? super EventCompletion<? super T>>> completionConsumers = new LinkedList<>();
-
-    private final AtomicReference<List<Throwable>> exceptions = new AtomicReference<>();
+    volatile List<Throwable> exceptions = null;
 
     private volatile boolean registrationComplete = false;
-    private final AtomicInteger pendingInvocations = new AtomicInteger();
-    private final CountDownLatch completionSync = new CountDownLatch(1);
+    volatile int pendingInvocations = 0;
+    volatile int supersededInvocations = 0;
 
     private volatile boolean dead = true;
 
-    private Stage stage = Stage.DELIVERY;
+    volatile int state = DELIVERY;
+    /**
+     * Consumers, {@link Waiter Waiters} and `CompletableFutures` to notify on completion,
+     * latest first.
+     */
+    volatile Node callbacks = null;
 
     public ParallelEventCompletion(EventBus eventBus, T event) {
         this.eventBus = eventBus;
@@ -68,17 +104,24 @@ final class ParallelEventCompletion<T> implements EventCompletion<T> {
 
     @Override
     public EventCompletion<T> afterCompletion(Consumer<? super EventCompletion<? super T>> consumer) {
-        synchronized ( completionConsumers ) {
-            if ( stage == Stage.COMPLETE ) {
-                invokeLateCompletion(consumer);
-            }
-            else {
-                completionConsumers.offer(consumer);
-            }
+        if ( !push(consumer) ) {
+            invokeLateCompletion(consumer);
         }
         return this;
     }
 
+    @Override
+    public CompletableFuture<EventCompletion<T>> toCompletableFuture() {
+        if ( callbacks == NOTIFIED ) {
+            return CompletableFuture.completedFuture(this);
+        }
+        CompletableFuture<EventCompletion<T>> future = new CompletableFuture<>();
+        if ( !push(future) ) {
+            future.complete(this);
+        }
+        return future;
+    }
+
     @Override
     public T getEvent() {
         return event;
@@ -91,7 +134,7 @@ final class ParallelEventCompletion<T> implements EventCompletion<T> {
 
     @Override
     public List<Throwable> getExceptions() {
-        List<Throwable> currentExceptions = exceptions.get();
+        List<Throwable> currentExceptions = exceptions;
         if ( currentExceptions == null ) {
             return ImmutableList.of();
         }
@@ -100,9 +143,14 @@ final class ParallelEventCompletion<T> implements EventCompletion<T> {
         }
     }
 
+    @Override
+    public int getSupersededInvocations() {
+        return supersededInvocations;
+    }
+
     @Override
     public boolean isComplete() {
-        return completionSync.getCount() == 0;
+        return state != DELIVERY;
     }
 
     @Override
@@ -112,19 +160,24 @@ final class ParallelEventCompletion<T> implements EventCompletion<T> {
 
     @Override
     public ParallelEventCompletion<T> await() throws InterruptedException {
-        completionSync.await();
+        awaitNanos(true, -1);
         return this;
     }
 
     @Override
     public ParallelEventCompletion<T> awaitUninterruptibly() {
-        Uninterruptibles.awaitUninterruptibly(completionSync);
+        try {
+            awaitNanos(false, -1);
+        }
+        catch ( InterruptedException e ) {
+            throw new UnreachableCodeError(e);
+        }
         return this;
     }
 
     @Override
     public ParallelEventCompletion<T> await(long time, TimeUnit unit) throws InterruptedException, TimeoutException {
-        if ( !completionSync.await(time, unit) ) {
+        if ( !awaitNanos(true, Math.max(0, unit.toNanos(time))) ) {
             throw new TimeoutException();
         }
         return this;
@@ -132,14 +185,114 @@ final class ParallelEventCompletion<T> implements EventCompletion<T> {
 
     @Override
     public ParallelEventCompletion<T> awaitUninterruptibly(long time, TimeUnit unit) throws TimeoutException {
-        if ( !Uninterruptibles.awaitUninterruptibly(completionSync, time, unit) ) {
+        boolean completed;
+        try {
+            completed = awaitNanos(false, Math.max(0, unit.toNanos(time)));
+        }
+        catch ( InterruptedException e ) {
+            throw new UnreachableCodeError(e);
+        }
+        if ( !completed ) {
             throw new TimeoutException();
         }
         return this;
     }
 
+    /**
+     * Park the current thread until the event is complete.
+     *
+     * @param nanos The maximum time to wait, negative to wait forever.
+     *
+     * @return `false` on timeout.
+     */
+    private boolean awaitNanos(boolean interruptible, long nanos) throws InterruptedException {
+        if ( isComplete() ) {
+            return true;
+        }
+        Waiter waiter = new Waiter(Thread.currentThread());
+        if ( !push(waiter) ) {
+            return true;
+        }
+        long deadline = nanos >= 0 ? System.nanoTime() + nanos : 0;
+        boolean interrupted = false;
+        try {
+            while ( !waiter.released ) {
+                if ( nanos >= 0 ) {
+                    long remaining = deadline - System.nanoTime();
+                    if ( remaining <= 0 ) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+                else {
+                    LockSupport.park(this);
+                }
+                if ( Thread.interrupted() ) {
+                    if ( interruptible ) {
+                        throw new InterruptedException();
+                    }
+                    interrupted = true;
+                }
+            }
+            return true;
+        }
+        finally {
+            if ( !waiter.released ) {
+                waiter.cancelled = true;
+                unlinkCancelled();
+            }
+            if ( interrupted ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Unlink the waiters that timed out or have been interrupted, so waiting repeatedly
+     * on an event that doesn't complete doesn't pile them up. The head is left alone,
+     * it's only ever replaced by `push()` and `complete()`.
+     *
+     * Concurrent sweeps may relink a cancelled node that another sweep just unlinked,
+     * that's harmless. Nodes that aren't cancelled are never skipped.
+     */
+    private void unlinkCancelled() {
+        Node pred = callbacks;
+        if ( pred == null || pred == NOTIFIED ) {
+            return;
+        }
+        Node node = pred.next;
+        while ( node != null ) {
+            Node next = node.next;
+            if ( node.isCancelled() ) {
+                pred.next = next;
+            }
+            else {
+                pred = node;
+            }
+            node = next;
+        }
+    }
+
+    /**
+     * @return `false`, if the callbacks have already been notified and the caller must
+     *         notify the callback itself.
+     */
+    private boolean push(Object callback) {
+        Node node = new Node(callback);
+        while ( true ) {
+            Node head = callbacks;
+            if ( head == NOTIFIED ) {
+                return false;
+            }
+            node.next = head;
+            if ( CALLBACKS_UPDATER.compareAndSet(this, head, node) ) {
+                return true;
+            }
+        }
+    }
+
     void scheduleInvocation(EventBus.Handler<?> handler) {
-        pendingInvocations.incrementAndGet();
+        PENDING_INVOCATIONS_UPDATER.incrementAndGet(this);
         if ( dead ) {
             dead = false;
         }
@@ -150,48 +303,78 @@ final class ParallelEventCompletion<T> implements EventCompletion<T> {
         checkForCompletion();
     }
 
+    @SuppressWarnings("unchecked")
     void invocationComplete(EventBus.Handler<?> handler, Throwable exception) {
         if ( isComplete() ) {
             throw new IllegalStateException("Event already complete");
         }
-        pendingInvocations.decrementAndGet();
         if ( exception != null ) {
-            if ( exceptions.get() == null ) {
-                exceptions.compareAndSet(null, Collections.synchronizedList(new ArrayList<>()));
+            if ( exceptions == null ) {
+                EXCEPTIONS_UPDATER.compareAndSet(this, null, Collections.synchronizedList(new ArrayList<>()));
             }
-            exceptions.get().add(exception);
+            exceptions.add(exception);
         }
+        PENDING_INVOCATIONS_UPDATER.decrementAndGet(this);
         checkForCompletion();
     }
 
+    void invocationSuperseded(EventBus.Handler<?> handler) {
+        SUPERSEDED_INVOCATIONS_UPDATER.incrementAndGet(this);
+        invocationComplete(handler, null);
+    }
+
     void checkForCompletion() {
-        if ( registrationComplete && pendingInvocations.get() <= 0 ) {
+        if ( registrationComplete && pendingInvocations <= 0 ) {
             complete();
         }
     }
 
     private void complete() {
-        synchronized ( completionConsumers ) {
-            if ( stage != Stage.DELIVERY ) {
-                return;
-            }
-            stage = Stage.COMPLETION;
-            completionSync.countDown();
+        if ( !STATE_UPDATER.compareAndSet(this, DELIVERY, COMPLETE) ) {
+            return;
         }
-        Consumer<? super EventCompletion<? super T>> consumer;
-        while ( (consumer = nextCompletionConsumer()) != null ) {
-            invokeCompletion(consumer);
+        // callbacks added while we're notifying are pushed onto the emptied stack and
+        // picked up in the next round, so they're still notified in order
+        while ( true ) {
+            Node head = callbacks;
+            if ( head == null ) {
+                if ( CALLBACKS_UPDATER.compareAndSet(this, null, NOTIFIED) ) {
+                    return;
+                }
+            }
+            else if ( CALLBACKS_UPDATER.compareAndSet(this, head, null) ) {
+                notify(head);
+            }
         }
     }
 
-    private Consumer<? super EventCompletion<? super T>> nextCompletionConsumer() {
-        synchronized ( completionConsumers ) {
-            assert stage == Stage.COMPLETION;
-            Consumer<? super EventCompletion<? super T>> consumer = completionConsumers.poll();
-            if ( consumer == null ) {
-                stage = Stage.COMPLETE;
+    @SuppressWarnings("unchecked")
+    private void notify(Node head) {
+        List<Object> ordered = new ArrayList<>();
+        for ( Node node = head; node != null; node = node.next ) {
+            if ( node.callback instanceof Waiter ) {
+                // release waiting threads first
+                if ( !node.isCancelled() ) {
+                    ((Waiter)node.callback).release();
+                }
+            }
+            else {
+                ordered.add(node.callback);
+            }
+        }
+        for ( int i = ordered.size() - 1; i >= 0; i-- ) {
+            Object callback = ordered.get(i);
+            try {
+                if ( callback instanceof CompletableFuture ) {
+                    ((CompletableFuture<EventCompletion<T>>)callback).complete(this);
+                }
+                else {
+                    invokeCompletion((Consumer<? super EventCompletion<? super T>>)callback);
+                }
+            }
+            catch ( Throwable e ) {
+                log.error("Error in completion callback of {}", this, e);
             }
-            return consumer;
         }
     }
 
@@ -208,8 +391,28 @@ final class ParallelEventCompletion<T> implements EventCompletion<T> {
         return "ParallelEventCompletion{eventBus=" + eventBus + ",event=" + event + "}";
     }
 
-    public static enum Stage {
-        DELIVERY, COMPLETION, COMPLETE;
+    private static final class Node {
+        private final Object callback;
+        private volatile Node next;
+        private Node(Object callback) {
+            this.callback = callback;
+        }
+        private boolean isCancelled() {
+            return callback instanceof Waiter && ((Waiter)callback).cancelled;
+        }
+    }
+
+    private static final class Waiter {
+        private final Thread thread;
+        private volatile boolean released = false;
+        private volatile boolean cancelled = false;
+        private Waiter(Thread thread) {
+            this.thread = thread;
+        }
+        private void release() {
+            released = true;
+            LockSupport.unpark(thread);
+        }
     }
 
 }
@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.function.Supplier;
+
+
+/**
+ * Resolves the additional parameters of {@link Subscribe @Subscribe} methods, i.e. the
+ * parameters following the event. Parameters are resolved once per subscriber class,
+ * the resulting supplier is called on each invocation.
+ *
+ * Return a {@link Constant} if the value doesn't change, it's bound to the synthesized
+ * handler as a constant then.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ * @see EventBusBuilder#resolveParameters(ParameterResolver)
+ */
+@FunctionalInterface
+public interface ParameterResolver {
+
+    /**
+     * @return The supplier of the parameter's value, `null` if this resolver doesn't
+     *         handle the parameter.
+     */
+    Supplier<?> resolve(Method method, Parameter parameter);
+
+    /**
+     * A value that doesn't change.
+     */
+    final class Constant<T> implements Supplier<T> {
+
+        private final T value;
+
+        public Constant(T value) {
+            this.value = value;
+        }
+
+        @Override
+        public T get() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return "Constant{" + value + "}";
+        }
+    }
+
+}
@@ -0,0 +1,326 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.eventbus;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The work queue of a prioritized thread pool: one lock-free FIFO lane per priority,
+ * polled highest priority first. Offering is O(1) and doesn't take a lock unless some
+ * thread is waiting for a task. Tasks that aren't {@link Prioritized} go to the lowest
+ * lane, priorities outside the range to the nearest one.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class PriorityLanesQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private final int minPriority;
+    /**
+     * Index 0 is the highest priority.
+     */
+    private final Queue<Runnable>[] lanes;
+    private final int capacity;
+    /**
+     * Tasks in the lanes, including the ones that are just being added.
+     */
+    private final AtomicInteger count = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // modified under lock only
+    private volatile int takers = 0;
+    private volatile int putters = 0;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    PriorityLanesQueue(int minPriority, int maxPriority, int capacity) {
+        if ( minPriority > maxPriority ) {
+            throw new IllegalArgumentException("minPriority(" + minPriority + ") > maxPriority(" + maxPriority + ")");
+        }
+        if ( capacity <= 0 ) {
+            throw new IllegalArgumentException("capacity(" + capacity + ") <= 0");
+        }
+        this.minPriority = minPriority;
+        this.capacity = capacity;
+        lanes = new Queue[maxPriority - minPriority + 1];
+        for ( int i = 0; i < lanes.length; i++ ) {
+            lanes[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    private Queue<Runnable> lane(Runnable task) {
+        int priority = task instanceof Prioritized ? ((Prioritized)task).priority() : minPriority;
+        // long, so extreme priorities like Integer.MIN_VALUE don't overflow
+        long index = lanes.length - 1 - ((long)priority - minPriority);
+        return lanes[(int)Math.max(0, Math.min(lanes.length - 1, index))];
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        Queue<Runnable> lane = lane(task);
+        if ( count.incrementAndGet() > capacity ) {
+            count.decrementAndGet();
+            return false;
+        }
+        lane.offer(task);
+        if ( takers > 0 ) {
+            signal(notEmpty);
+        }
+        return true;
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        if ( offer(task) ) {
+            return;
+        }
+        lock.lockInterruptibly();
+        try {
+            putters++;
+            while ( !offer(task) ) {
+                notFull.await();
+            }
+        }
+        finally {
+            putters--;
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        if ( offer(task) ) {
+            return true;
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            putters++;
+            while ( !offer(task) ) {
+                if ( nanos <= 0 ) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        }
+        finally {
+            putters--;
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        if ( count.get() <= 0 ) {
+            return null;
+        }
+        for ( Queue<Runnable> lane : lanes ) {
+            Runnable task = lane.poll();
+            if ( task != null ) {
+                taken();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Poll the oldest task of the lowest priority, i.e. the one to drop on overflow.
+     */
+    Runnable pollLowestPriority() {
+        if ( count.get() <= 0 ) {
+            return null;
+        }
+        for ( int i = lanes.length - 1; i >= 0; i-- ) {
+            Runnable task = lanes[i].poll();
+            if ( task != null ) {
+                taken();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        Runnable task = poll();
+        if ( task != null ) {
+            return task;
+        }
+        lock.lockInterruptibly();
+        try {
+            takers++;
+            while ( (task = poll()) == null ) {
+                notEmpty.await();
+            }
+            return task;
+        }
+        finally {
+            takers--;
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        Runnable task = poll();
+        if ( task != null ) {
+            return task;
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            takers++;
+            while ( (task = poll()) == null ) {
+                if ( nanos <= 0 ) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return task;
+        }
+        finally {
+            takers--;
+            lock.unlock();
+        }
+    }
+
+    private void taken() {
+        count.decrementAndGet();
+        if ( putters > 0 ) {
+            signal(notFull);
+        }
+    }
+
+    private void signal(Condition condition) {
+        lock.lock();
+        try {
+            condition.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        for ( Queue<Runnable> lane : lanes ) {
+            Runnable task = lane.peek();
+            if ( task != null ) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return Math.max(0, count.get());
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity == Integer.MAX_VALUE ? Integer.MAX_VALUE : Math.max(0, capacity - count.get());
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        for ( Queue<Runnable> lane : lanes ) {
+            if ( lane.remove(o) ) {
+                taken();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target, int maxElements) {
+        int drained = 0;
+        Runnable task;
+        while ( drained < maxElements && (task = poll()) != null ) {
+            target.add(task);
+            drained++;
+        }
+        return drained;
+    }
+
+    @Override
+    public Iterator<Runnable> iterator() {
+        return new Iterator<Runnable>() {
+            private int index = 0;
+            private Iterator<Runnable> current = lanes[0].iterator();
+            private Runnable last = null;
+            private Queue<Runnable> lastLane = null;
+            @Override
+            public boolean hasNext() {
+                while ( !current.hasNext() ) {
+                    if ( ++index >= lanes.length ) {
+                        return false;
+                    }
+                    current = lanes[index].iterator();
+                }
+                return true;
+            }
+            @Override
+            public Runnable next() {
+                if ( !hasNext() ) {
+                    throw new NoSuchElementException();
+                }
+                last = current.next();
+                lastLane = lanes[index];
+                return last;
+            }
+            @Override
+            public void remove() {
+                if ( last == null ) {
+                    throw new IllegalStateException();
+                }
+                if ( lastLane.remove(last) ) {
+                    taken();
+                }
+                last = null;
+            }
+        };
+    }
+
+}
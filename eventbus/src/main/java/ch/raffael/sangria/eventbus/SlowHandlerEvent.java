@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.eventbus;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Posted when a handler took longer than the threshold configured with
+ * {@link EventBusBuilder#slowHandlerThreshold(long, TimeUnit)}. Slow handlers of
+ * `SlowHandlerEvents` don't cause further `SlowHandlerEvents`.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@Event(async = true)
+public class SlowHandlerEvent {
+
+    private final String handler;
+    private final Object event;
+    private final long nanos;
+
+    public SlowHandlerEvent(String handler, Object event, long nanos) {
+        this.handler = handler;
+        this.event = event;
+        this.nanos = nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "SlowHandlerEvent{" + handler + "(" + event + "):" + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms}";
+    }
+
+    /**
+     * The handler as `declaringClass#method(ParameterType, ...)`.
+     */
+    public String getHandler() {
+        return handler;
+    }
+
+    public Object getEvent() {
+        return event;
+    }
+
+    public long getTime(TimeUnit unit) {
+        return unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+}
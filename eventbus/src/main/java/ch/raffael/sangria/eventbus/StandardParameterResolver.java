@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.function.Supplier;
+
+import ch.raffael.sangria.logging.MdcContext;
+
+
+/**
+ * Resolves the parameters every event bus supports:
+ *
+ *  *  `EventCompletion`: the completion of the event being handled, `null` for fired
+ *     events,
+ *  *  `MdcContext`: the MDC at the time of the invocation, i.e. the posting thread's
+ *     MDC if it's {@link EventBusBuilder#propagateMdc() propagated}.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class StandardParameterResolver implements ParameterResolver {
+
+    static final StandardParameterResolver INSTANCE = new StandardParameterResolver();
+
+    private StandardParameterResolver() {
+    }
+
+    @Override
+    public Supplier<?> resolve(Method method, Parameter parameter) {
+        if ( parameter.getType() == EventCompletion.class ) {
+            return StandardParameterResolver::currentCompletion;
+        }
+        else if ( parameter.getType() == MdcContext.class ) {
+            return MdcContext::capture;
+        }
+        else {
+            return null;
+        }
+    }
+
+    private static EventCompletion<?> currentCompletion() {
+        Invocation invocation = Invocation.current();
+        return invocation == null ? null : invocation.getCompletion();
+    }
+
+}
@@ -37,6 +37,9 @@ import java.lang.annotation.Target;
  * a reference to the event bus to the method. This may be used to publish more events or
  * (un)subscribe handlers during event handling.
  *
+ * Further parameters following the event are resolved by the event bus' {@link
+ * ParameterResolver ParameterResolvers}.
+ *
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
 @Target(ElementType.METHOD)
@@ -72,4 +75,11 @@ public @interface Subscribe {
      */
     Class<?>[] value() default { };
 
+    /**
+     * The handler is cheap, i.e. it returns quickly and doesn't block. Event buses
+     * built with {@link EventBusBuilder#inlineCheapHandlers()} run cheap handlers on
+     * the posting thread instead of handing them over to a worker.
+     */
+    boolean cheap() default false;
+
 }
@@ -0,0 +1,344 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+
+/**
+ * Generates {@link CompiledHandlers} for the classes with {@link Subscribe @Subscribe}
+ * methods, so the event bus doesn't need to generate bytecode at runtime for them. The
+ * processor is registered as service, `javac` picks it up from the class path.
+ *
+ * The generated class calls the handler methods directly, so it needs access to them.
+ * Classes where that's not possible are skipped silently, the event bus synthesizes
+ * their handlers at runtime as before. This is the case for:
+ *
+ *  *  anonymous, local and private classes,
+ *  *  private or static handler methods, or package private or protected ones
+ *     inherited from another package,
+ *  *  handler methods with generic or inaccessible event types or additional
+ *     parameters,
+ *  *  handler methods declaring to throw a `Throwable` that's not an `Exception`.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public class SubscribeProcessor extends AbstractProcessor {
+
+    private final Set<String> generated = new HashSet<>();
+
+    public SubscribeProcessor() {
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(Subscribe.class.getName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> subscriberTypes = new LinkedHashSet<>();
+        for ( Element element : roundEnv.getElementsAnnotatedWith(Subscribe.class) ) {
+            if ( element.getKind() == ElementKind.METHOD && element.getEnclosingElement() instanceof TypeElement ) {
+                subscriberTypes.add((TypeElement)element.getEnclosingElement());
+            }
+        }
+        for ( TypeElement type : subscriberTypes ) {
+            if ( generated.add(type.getQualifiedName().toString()) ) {
+                new Generator(type).generate();
+            }
+        }
+        // other processors may be interested in @Subscribe, too
+        return false;
+    }
+
+    private final class Generator {
+
+        private final Elements elements = processingEnv.getElementUtils();
+        private final Types types = processingEnv.getTypeUtils();
+        private final Messager messager = processingEnv.getMessager();
+
+        private final TypeElement type;
+        private final PackageElement pkg;
+        private final TypeMirror eventBusType = elements.getTypeElement(EventBus.class.getCanonicalName()).asType();
+        private final List<HandlerMethod> handlers = new ArrayList<>();
+
+        private Generator(TypeElement type) {
+            this.type = type;
+            pkg = elements.getPackageOf(type);
+        }
+
+        private void generate() {
+            if ( !isSupportedType() || !collectHandlers() ) {
+                return;
+            }
+            String binaryName = elements.getBinaryName(type).toString();
+            String simpleName = (pkg.isUnnamed() ? binaryName : binaryName.substring(pkg.getQualifiedName().length() + 1))
+                    + CompiledHandlers.CLASS_NAME_SUFFIX;
+            String subscriberType = types.erasure(type.asType()).toString();
+            try ( PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(
+                    (pkg.isUnnamed() ? "" : pkg.getQualifiedName() + ".") + simpleName, type).openWriter()) ) {
+                if ( !pkg.isUnnamed() ) {
+                    out.println("package " + pkg.getQualifiedName() + ";");
+                    out.println();
+                }
+                out.println("/**");
+                out.println(" * Event handlers of {@link " + subscriberType + "}, generated by {@code " + SubscribeProcessor.class.getName() + "}.");
+                out.println(" */");
+                if ( !type.getTypeParameters().isEmpty() ) {
+                    out.println("@SuppressWarnings(\"rawtypes\")");
+                }
+                out.println("public final class " + simpleName + " extends " + CompiledHandlers.class.getName() + "<" + subscriberType + "> {");
+                out.println();
+                out.println("    public " + simpleName + "() {");
+                out.println("        super(" + subscriberType + ".class,");
+                out.println("              new Class<?>[] {");
+                for ( HandlerMethod handler : handlers ) {
+                    out.println("                      " + handler.eventType + ".class,");
+                }
+                out.println("              },");
+                out.println("              new String[] {");
+                for ( HandlerMethod handler : handlers ) {
+                    out.println("                      \"" + handler.name + "\",");
+                }
+                out.println("              },");
+                out.println("              new boolean[] {");
+                for ( HandlerMethod handler : handlers ) {
+                    out.println("                      " + handler.cheap + ",");
+                }
+                out.println("              });");
+                out.println("    }");
+                out.println();
+                out.println("    @Override");
+                out.println("    protected void handleEvent(" + subscriberType + " subscriber, int index, "
+                        + EventBus.class.getName() + " eventBus, Object event) throws Exception {");
+                out.println("        switch ( index ) {");
+                for ( int i = 0; i < handlers.size(); i++ ) {
+                    HandlerMethod handler = handlers.get(i);
+                    out.println("            case " + i + ":");
+                    out.println("                subscriber." + handler.method.getSimpleName() + "("
+                            + (handler.injectBus ? "eventBus, " : "") + "(" + handler.eventType + ")event);");
+                    out.println("                break;");
+                }
+                out.println("            default:");
+                out.println("                throw new IndexOutOfBoundsException(String.valueOf(index));");
+                out.println("        }");
+                out.println("    }");
+                out.println();
+                out.println("}");
+            }
+            catch ( IOException e ) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Cannot write event handlers: " + e, type);
+            }
+        }
+
+        private boolean isSupportedType() {
+            if ( type.getKind() != ElementKind.CLASS && type.getKind() != ElementKind.ENUM ) {
+                return false;
+            }
+            for ( Element current = type; current instanceof TypeElement; current = current.getEnclosingElement() ) {
+                NestingKind nesting = ((TypeElement)current).getNestingKind();
+                if ( nesting != NestingKind.TOP_LEVEL && nesting != NestingKind.MEMBER ) {
+                    return false;
+                }
+                if ( current.getModifiers().contains(Modifier.PRIVATE) ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Collect the handler methods of the type and its superclasses like the runtime
+         * does: overridden methods are only handlers if the overriding method is
+         * annotated, too.
+         *
+         * @return `false`, if the class isn't supported.
+         */
+        private boolean collectHandlers() {
+            List<ExecutableElement> methods = new ArrayList<>();
+            for ( TypeElement current = type; current != null; current = superclass(current) ) {
+                for ( ExecutableElement method : ElementFilter.methodsIn(current.getEnclosedElements()) ) {
+                    if ( methods.stream().noneMatch(m -> elements.overrides(m, method, type)) ) {
+                        methods.add(method);
+                    }
+                }
+            }
+            boolean supported = true;
+            for ( ExecutableElement method : methods ) {
+                if ( method.getAnnotation(Subscribe.class) != null ) {
+                    supported &= addHandler(method);
+                }
+            }
+            return supported;
+        }
+
+        private TypeElement superclass(TypeElement type) {
+            TypeMirror superclass = type.getSuperclass();
+            return superclass.getKind() == TypeKind.DECLARED ? (TypeElement)((DeclaredType)superclass).asElement() : null;
+        }
+
+        /**
+         * @return `false`, if the method isn't supported.
+         */
+        private boolean addHandler(ExecutableElement method) {
+            List<? extends VariableElement> parameters = method.getParameters();
+            boolean injectBus = !parameters.isEmpty() && types.isSameType(parameters.get(0).asType(), eventBusType);
+            if ( parameters.size() < (injectBus ? 2 : 1) ) {
+                // the runtime would fail, too
+                messager.printMessage(Diagnostic.Kind.ERROR, "No event argument", method);
+                return false;
+            }
+            if ( parameters.size() > (injectBus ? 2 : 1) ) {
+                return false;
+            }
+            Set<Modifier> modifiers = method.getModifiers();
+            if ( modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC) ) {
+                return false;
+            }
+            if ( !modifiers.contains(Modifier.PUBLIC) && !elements.getPackageOf(method).equals(pkg) ) {
+                return false;
+            }
+            if ( !accessible((TypeElement)method.getEnclosingElement()) ) {
+                return false;
+            }
+            TypeMirror eventType = parameters.get(injectBus ? 1 : 0).asType();
+            if ( eventType.getKind() != TypeKind.DECLARED || !((DeclaredType)eventType).getTypeArguments().isEmpty()
+                    || !accessible((TypeElement)((DeclaredType)eventType).asElement()) ) {
+                return false;
+            }
+            TypeMirror exception = elements.getTypeElement(Exception.class.getName()).asType();
+            TypeMirror error = elements.getTypeElement(Error.class.getName()).asType();
+            for ( TypeMirror thrown : method.getThrownTypes() ) {
+                if ( !types.isAssignable(thrown, exception) && !types.isAssignable(thrown, error) ) {
+                    return false;
+                }
+            }
+            handlers.add(new HandlerMethod(method, handlerName(method),
+                    types.erasure(eventType).toString(), injectBus, method.getAnnotation(Subscribe.class).cheap()));
+            return true;
+        }
+
+        /**
+         * The name of the handler as `declaringClass#method(ParameterType, ...)`, the
+         * same as {@link HandlerSynthesizer} reports for the method.
+         */
+        private String handlerName(ExecutableElement method) {
+            return elements.getBinaryName((TypeElement)method.getEnclosingElement()) + "#" + method.getSimpleName()
+                    + method.getParameters().stream()
+                    .map(p -> simpleName(types.erasure(p.asType())))
+                    .collect(Collectors.joining(", ", "(", ")"));
+        }
+
+        /**
+         * The simple name of an erased type like `Class.getSimpleName()` returns it.
+         */
+        private String simpleName(TypeMirror type) {
+            if ( type.getKind() == TypeKind.DECLARED ) {
+                return ((DeclaredType)type).asElement().getSimpleName().toString();
+            }
+            else if ( type.getKind() == TypeKind.ARRAY ) {
+                return simpleName(((ArrayType)type).getComponentType()) + "[]";
+            }
+            else {
+                return type.toString();
+            }
+        }
+
+        /**
+         * Whether the generated class in the subscriber's package can reference the
+         * given type.
+         */
+        private boolean accessible(TypeElement type) {
+            for ( Element current = type; current instanceof TypeElement; current = current.getEnclosingElement() ) {
+                Set<Modifier> modifiers = current.getModifiers();
+                if ( modifiers.contains(Modifier.PRIVATE) ) {
+                    return false;
+                }
+                if ( !modifiers.contains(Modifier.PUBLIC) && !elements.getPackageOf(current).equals(pkg) ) {
+                    return false;
+                }
+                NestingKind nesting = ((TypeElement)current).getNestingKind();
+                if ( nesting != NestingKind.TOP_LEVEL && nesting != NestingKind.MEMBER ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class HandlerMethod {
+
+        private final ExecutableElement method;
+        private final String name;
+        private final String eventType;
+        private final boolean injectBus;
+        private final boolean cheap;
+
+        private HandlerMethod(ExecutableElement method, String name, String eventType, boolean injectBus, boolean cheap) {
+            this.method = method;
+            this.name = name;
+            this.eventType = eventType;
+            this.injectBus = injectBus;
+            this.cheap = cheap;
+        }
+    }
+
+}
@@ -24,13 +24,24 @@
 
 package ch.raffael.sangria.eventbus;
 
-import java.lang.ref.WeakReference;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.stream.Stream;
 
 
@@ -39,32 +50,87 @@ import java.util.stream.Stream;
  */
 final class Subscriber {
 
+    private static final AtomicIntegerFieldUpdater<Subscriber> MAILBOX_SIZE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(Subscriber.class, "mailboxSize");
+    private static final AtomicIntegerFieldUpdater<Submission> SUBMISSION_STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(Submission.class, "state");
+    private static final AtomicIntegerFieldUpdater<ParallelSubmission> PENDING_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ParallelSubmission.class, "pending");
+    private static final AtomicIntegerFieldUpdater<BulkSubmission> BULK_PENDING_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(BulkSubmission.class, "pending");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Subscriber, ConcurrentMap> CONFLATED_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Subscriber.class, ConcurrentMap.class, "conflated");
+
+    private static final int QUEUED = 0;
+    private static final int SUBMITTING = 1;
+    private static final int SUBMITTED = 2;
+    private static final int FINISHED_WHILE_SUBMITTING = 3;
+    private static final int DROPPED = 4;
+
+    private static final long DROP_OLDEST_RETRY_MICROS = 100;
+
     private final ExecutorService executor;
-    private final WeakReference<Object> weakReference;
+    private final AffinityExecutor lanes;
+    private final ForkJoinPool forkJoinPool;
+    private final int affinity;
+    /**
+     * The handlers only reference the subscriber weakly, this keeps it alive unless it
+     * has been subscribed weakly.
+     */
+    private final SubscriberKey weakReference;
     private volatile Object hardReference = null;
-    private final Queue<Submission> syncedSubmissionQueue = new LinkedList<>();
-    private Submission currentSyncedSubmission = null;
+    /**
+     * The ordered submissions of this subscriber. Any thread may offer, but only the
+     * thread that brought `mailboxSize` from 0 to 1 or finalized the current submission
+     * polls, so there's always at most one ordered submission on its way.
+     */
+    private final Queue<Submission> mailbox = new ConcurrentLinkedQueue<>();
+    volatile int mailboxSize = 0;
+    /**
+     * The queued submissions of conflated events by conflation key, created on the
+     * first conflated event.
+     */
+    volatile ConcurrentMap<Object, Submission> conflated = null;
     private final Subscription[] subscriptions;
+    private final boolean sequential;
+    private final int maxDrainBatch;
+    /**
+     * One permit per queued submission that hasn't been taken from the mailbox yet,
+     * `null` for unbounded mailboxes.
+     */
+    private final Semaphore capacity;
+    private final OverflowPolicy overflowPolicy;
+    /**
+     * Whether cheap invocations run on the current thread instead of the executor.
+     */
+    private final boolean inlineCheap;
+    private final EventBusMetrics metrics;
 
-    Subscriber(ExecutorService executor, Object subscriber, Subscription[] subscriptions) {
-        this.executor = executor;
-        this.weakReference = new WeakReference<>(subscriber);
+    Subscriber(ParallelEventBus bus, SubscriberKey key, Subscription[] subscriptions) {
+        Object subscriber = key.get();
+        executor = bus.executor();
+        lanes = bus.affinityExecutor();
+        forkJoinPool = bus.forkJoinPool();
+        affinity = key.hashCode();
+        maxDrainBatch = bus.maxDrainBatch();
+        capacity = bus.mailboxCapacity() > 0 ? new Semaphore(bus.mailboxCapacity()) : null;
+        overflowPolicy = bus.overflowPolicy();
+        inlineCheap = bus.inlineCheapHandlers();
+        metrics = bus.metrics();
+        this.weakReference = key;
         this.subscriptions = subscriptions;
+        sequential = SubscriberInfo.of(subscriber.getClass()).sequential;
     }
 
-    private boolean checkActive() {
-        if ( weakReference.get() == null ) {
-            syncedSubmissionQueue.clear();
-            return false;
-        }
-        else {
-            return true;
-        }
+    private boolean isActive() {
+        return weakReference.get() != null;
     }
 
     void setWeak(boolean weak) {
         if ( weak ) {
             hardReference = null;
+            SubscriberKey.startReaper();
         }
         else {
             hardReference = weakReference.get();
@@ -72,65 +138,311 @@ final class Subscriber {
     }
 
     boolean isWeak() {
-        return hardReference != null;
+        return hardReference == null;
     }
 
     Object get() {
         return weakReference.get();
     }
 
-    void post(long serial, EventBus eventBus, Object event, ParallelEventCompletion<?> completion) {
-        Object subscriber = weakReference.get();
-        if ( subscriber == null ) {
-            checkActive();
-            return;
+    Set<Class<?>> eventTypes() {
+        Set<Class<?>> eventTypes = new HashSet<>(subscriptions.length);
+        for ( Subscription subscription : subscriptions ) {
+            eventTypes.add(subscription.eventType);
         }
-        boolean sequential = subscriber.getClass().getAnnotation(SequentialEventHandler.class) != null;
-        boolean async = Events.isAsynchronousEvent(event) && !sequential;
-        Invocation[] invocations = Stream.of(subscriptions)//.parallel()
-                .filter(subscription -> subscription.eventType.isInstance(event))
-                .map(subscription -> {
+        return eventTypes;
+    }
+
+    Subscription[] subscriptionsFor(Class<?> eventClass) {
+        return Stream.of(subscriptions)
+                .filter(subscription -> subscription.eventType.isAssignableFrom(eventClass))
+                .toArray(Subscription[]::new);
+    }
+
+    int mailboxSize() {
+        return mailboxSize;
+    }
+
+    /**
+     * @param completion The completion to report to, `null` for fired events.
+     * @param context    The context captured from the posting thread, if any.
+     *
+     * @return `false`, if the mailbox overflowed and the policy says that `post()`
+     *         should fail.
+     */
+    boolean post(long serial, EventBus eventBus, Object event, Subscription[] subscriptions, ParallelEventCompletion<?> completion, EventContext context) {
+        if ( !isActive() ) {
+            return true;
+        }
+        boolean async = !sequential && EventTypeInfo.of(event).async;
+        if ( async ) {
+            // no ordering required, hand the invocations directly to the executor
+            for ( Subscription subscription : subscriptions ) {
+                if ( completion != null ) {
                     completion.scheduleInvocation(subscription.handler);
-                    return new Invocation(serial, eventBus, event, subscription.handler, completion, async);
-                })
-                .toArray(Invocation[]::new);
-        if ( sequential ) {
-            assert !async;
-            enqueue(new SequentialSubmission(invocations, completion));
+                }
+                execute(new Invocation(serial, eventBus, event, subscription, completion, context, true, metrics));
+            }
+            return true;
+        }
+        Invocation[] invocations = new Invocation[subscriptions.length];
+        for ( int i = 0; i < subscriptions.length; i++ ) {
+            if ( completion != null ) {
+                completion.scheduleInvocation(subscriptions[i].handler);
+            }
+            invocations[i] = new Invocation(serial, eventBus, event, subscriptions[i], completion, context, false, metrics);
+        }
+        return enqueue(submission(invocations, EventTypeInfo.conflationKey(event)));
+    }
+
+    private Submission submission(Invocation[] invocations, Object conflationKey) {
+        Submission submission = sequential ? new SequentialSubmission(invocations) : new ParallelSubmission(invocations);
+        submission.conflationKey = conflationKey;
+        return submission;
+    }
+
+    Batch batch() {
+        return new Batch();
+    }
+
+    private void execute(Invocation invocation) {
+        try {
+            execute(invocation, inlineCheap && invocation.isCheap());
         }
-        else if ( async ) {
-            new ParallelSubmission(invocations, completion).submit();
+        catch ( Throwable e ) {
+            invocation.cancel(e);
+        }
+    }
+
+    /**
+     * Run the task on the current thread if `inline`, hand it over to the executor
+     * otherwise.
+     */
+    private void execute(Runnable task, boolean inline) {
+        if ( inline ) {
+            if ( executor.isShutdown() ) {
+                throw new RejectedExecutionException("Event bus has been shut down");
+            }
+            task.run();
         }
         else {
-            enqueue(new ParallelSubmission(invocations, completion));
+            executor.execute(task);
         }
     }
 
-    private void enqueue(Submission submission) {
-        synchronized ( syncedSubmissionQueue ) {
-            if ( checkActive() ) {
-                syncedSubmissionQueue.offer(submission);
-                pollQueue();
+    /**
+     * Whether the given invocations run on the current thread because they're all
+     * cheap.
+     */
+    private boolean runsOnCurrentThread(Invocation[] invocations) {
+        if ( !inlineCheap ) {
+            return false;
+        }
+        for ( Invocation invocation : invocations ) {
+            if ( !invocation.isCheap() ) {
+                return false;
             }
         }
+        return true;
+    }
+
+    private boolean enqueue(Submission submission) {
+        if ( submission.conflationKey != null ) {
+            supersede(submission);
+        }
+        if ( capacity != null && !submission.permit && !reserve(submission) ) {
+            return overflowPolicy != OverflowPolicy.FAIL;
+        }
+        if ( submission.conflationKey != null ) {
+            conflated().put(submission.conflationKey, submission);
+        }
+        mailbox.offer(submission);
+        if ( MAILBOX_SIZE_UPDATER.getAndIncrement(this) == 0 ) {
+            drain(mailbox.poll());
+        }
+        return true;
+    }
+
+    /**
+     * Reserve room in the mailbox for the given submission according to the overflow
+     * policy.
+     *
+     * @return `false`, if the submission overflowed and has been discarded.
+     */
+    private boolean reserve(Submission submission) {
+        if ( capacity.tryAcquire() ) {
+            submission.permit = true;
+            return true;
+        }
+        switch ( overflowPolicy ) {
+            case BLOCK:
+                if ( ParallelEventBus.isWorkerThread(forkJoinPool) ) {
+                    // blocking a worker may deadlock the bus, exceed the capacity instead
+                    return true;
+                }
+                try {
+                    capacity.acquire();
+                    submission.permit = true;
+                    return true;
+                }
+                catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    submission.discard(new EventOverflowException("Interrupted while waiting for room in the mailbox of " + this));
+                    return false;
+                }
+            case DROP_OLDEST:
+                // we inherit the permit of the dropped submission
+                while ( !dropOldest() ) {
+                    // the permits are held by submissions that are just being queued or
+                    // claimed, wait for one of them to show up or release its permit
+                    if ( ParallelEventBus.isWorkerThread(forkJoinPool) ) {
+                        // like BLOCK, exceed the capacity instead of blocking a worker
+                        return true;
+                    }
+                    try {
+                        if ( capacity.tryAcquire(DROP_OLDEST_RETRY_MICROS, TimeUnit.MICROSECONDS) ) {
+                            break;
+                        }
+                    }
+                    catch ( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                        submission.discard(new EventOverflowException("Interrupted while waiting for room in the mailbox of " + this));
+                        return false;
+                    }
+                }
+                submission.permit = true;
+                return true;
+            case OVERFLOW_EVENT:
+                submission.discard(new EventOverflowException("Mailbox of " + this + " full"));
+                Invocation first = submission.invocations[0];
+                if ( !(first.getEvent() instanceof OverflowEvent) ) {
+                    first.getEventBus().post(new OverflowEvent(first.getCompletion(), get()));
+                }
+                return false;
+            default:
+                submission.discard(new EventOverflowException("Mailbox of " + this + " full"));
+                return false;
+        }
     }
 
-    @SuppressWarnings("ObjectEquality")
-    private void finalizeSubmission(Submission submission) {
-        synchronized ( syncedSubmissionQueue ) {
-            if ( currentSyncedSubmission == submission ) {
-                currentSyncedSubmission = null;
-                pollQueue();
+    /**
+     * Drop the queued submission with the same conflation key as the given one. The
+     * new submission takes over its room in the mailbox.
+     *
+     * The new submission is only registered for conflation once it got its room, so
+     * concurrent posters of the same key may both end up in the mailbox. That's just
+     * a missed chance to conflate.
+     */
+    private void supersede(Submission submission) {
+        ConcurrentMap<Object, Submission> conflated = this.conflated;
+        if ( conflated == null ) {
+            return;
+        }
+        Submission previous = conflated.get(submission.conflationKey);
+        if ( previous != null && SUBMISSION_STATE_UPDATER.compareAndSet(previous, QUEUED, DROPPED) ) {
+            conflated.remove(submission.conflationKey, previous);
+            submission.permit = previous.permit;
+            previous.supersede();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ConcurrentMap<Object, Submission> conflated() {
+        ConcurrentMap<Object, Submission> conflated = this.conflated;
+        if ( conflated == null ) {
+            CONFLATED_UPDATER.compareAndSet(this, null, new ConcurrentHashMap<>());
+            conflated = this.conflated;
+        }
+        return conflated;
+    }
+
+    /**
+     * Discard all queued submissions after the subscriber has been collected. The
+     * dropped submissions are skipped when the mailbox is drained.
+     */
+    void discardMailbox() {
+        for ( Submission queued : mailbox ) {
+            if ( SUBMISSION_STATE_UPDATER.compareAndSet(queued, QUEUED, DROPPED) ) {
+                queued.forgetConflationKey();
+                if ( queued.permit ) {
+                    capacity.release();
+                }
+                queued.discard(null);
+            }
+        }
+    }
+
+    private boolean dropOldest() {
+        for ( Submission queued : mailbox ) {
+            if ( queued.permit && SUBMISSION_STATE_UPDATER.compareAndSet(queued, QUEUED, DROPPED) ) {
+                queued.forgetConflationKey();
+                queued.discard(new EventOverflowException("Dropped from mailbox of " + this));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void finalizeSubmission() {
+        if ( MAILBOX_SIZE_UPDATER.decrementAndGet(this) > 0 ) {
+            drain(mailbox.poll());
+        }
+    }
+
+    /**
+     * Submit the next submission from the mailbox. Submissions that finish before
+     * `submit()` returns (e.g. because the executor rejected them) are finalized here
+     * instead of recursing through `finalizeSubmission()`.
+     */
+    private void drain(Submission next) {
+        while ( true ) {
+            assert next != null;
+            if ( !next.claim(SUBMITTING) ) {
+                // dropped while queued, nothing to do
+            }
+            else if ( !isActive() ) {
+                next.discard(null);
             }
+            else if ( !next.dispatch() ) {
+                return;
+            }
+            if ( MAILBOX_SIZE_UPDATER.decrementAndGet(this) == 0 ) {
+                return;
+            }
+            next = mailbox.poll();
         }
     }
 
-    private void pollQueue() {
-        if ( checkActive() ) {
-            if ( currentSyncedSubmission == null ) {
-                currentSyncedSubmission = syncedSubmissionQueue.poll();
-                if ( currentSyncedSubmission != null ) {
-                    currentSyncedSubmission.submit();
+    /**
+     * Run the given submission on the current worker thread, then keep running further
+     * inline submissions from the mailbox up to `maxDrainBatch` before yielding the
+     * thread back to the executor.
+     */
+    private void runBatch(Submission submission) {
+        int budget = maxDrainBatch;
+        while ( true ) {
+            submission.runInline();
+            if ( !submission.release() ) {
+                // finished before the dispatching thread was done, it will move on
+                return;
+            }
+            if ( MAILBOX_SIZE_UPDATER.decrementAndGet(this) == 0 ) {
+                return;
+            }
+            submission = mailbox.poll();
+            if ( --budget <= 0 || !submission.isInline() || !isActive() ) {
+                drain(submission);
+                return;
+            }
+            while ( !submission.claim(SUBMITTED) ) {
+                // dropped while queued, skip it
+                if ( MAILBOX_SIZE_UPDATER.decrementAndGet(this) == 0 ) {
+                    return;
+                }
+                submission = mailbox.poll();
+                if ( !submission.isInline() || !isActive() ) {
+                    drain(submission);
+                    return;
                 }
             }
         }
@@ -143,10 +455,19 @@ final class Subscriber {
 
     static class Subscription {
         private final Class<?> eventType;
-        private final EventBus.Handler<?> handler;
-        Subscription(Class<?> eventType, EventBus.Handler<?> handler) {
+        final EventBus.Handler<?> handler;
+        /**
+         * The handler as `declaringClass#method(ParameterType, ...)`.
+         */
+        final String name;
+        final boolean cheap;
+        final HandlerProfile profile;
+        Subscription(Class<?> eventType, EventBus.Handler<?> handler, String name, boolean cheap, HandlerProfile profile) {
             this.eventType = eventType;
             this.handler = handler;
+            this.name = name;
+            this.cheap = cheap;
+            this.profile = profile;
         }
         @Override
         public String toString() {
@@ -154,77 +475,376 @@ final class Subscriber {
         }
     }
 
-    abstract class Submission {
+    abstract class Submission implements Runnable, Cancellable, Prioritized {
+
+        final Invocation[] invocations;
+        volatile int state = QUEUED;
+        /**
+         * Whether this submission holds a permit of the mailbox capacity.
+         */
+        boolean permit = false;
+        /**
+         * The key to conflate this submission with newer ones by, `null` if it isn't
+         * conflated.
+         */
+        Object conflationKey = null;
+
+        Submission(Invocation[] invocations) {
+            this.invocations = invocations;
+        }
+
+        /**
+         * Take the submission from the mailbox.
+         *
+         * @return `false`, if the submission has been dropped.
+         */
+        final boolean claim(int newState) {
+            if ( !SUBMISSION_STATE_UPDATER.compareAndSet(this, QUEUED, newState) ) {
+                return false;
+            }
+            forgetConflationKey();
+            if ( permit ) {
+                capacity.release();
+            }
+            return true;
+        }
+
+        /**
+         * Remove this submission from the conflation map once it can't be superseded
+         * anymore.
+         */
+        final void forgetConflationKey() {
+            if ( conflationKey != null && conflated != null ) {
+                conflated.remove(conflationKey, this);
+            }
+        }
+
+        final void supersede() {
+            for ( Invocation invocation : invocations ) {
+                invocation.supersede();
+            }
+        }
+
+        /**
+         * Submit to the executor.
+         *
+         * @return `true`, if the submission has already finished and the caller is
+         *         responsible to move on to the next submission.
+         */
+        final boolean dispatch() {
+            submit();
+            return !SUBMISSION_STATE_UPDATER.compareAndSet(this, SUBMITTING, SUBMITTED);
+        }
+
+        /**
+         * Mark the submission as finished.
+         *
+         * @return `true`, if the caller is responsible to move on to the next submission.
+         */
+        final boolean release() {
+            return !SUBMISSION_STATE_UPDATER.compareAndSet(this, SUBMITTING, FINISHED_WHILE_SUBMITTING);
+        }
+
+        final void finished() {
+            if ( release() ) {
+                finalizeSubmission();
+            }
+        }
+
         abstract void submit();
+
+        /**
+         * Whether all invocations of this submission run on one thread, one after the
+         * other. Such submissions may be batched.
+         */
+        abstract boolean isInline();
+
+        final void submitInline() {
+            try {
+                if ( runsOnCurrentThread(invocations) ) {
+                    execute(this, true);
+                }
+                else if ( lanes != null ) {
+                    lanes.execute(this, affinity);
+                }
+                else {
+                    executor.execute(this);
+                }
+            }
+            catch ( Throwable e ) {
+                cancel(e);
+            }
+        }
+
+        final void runInline() {
+            for ( Invocation invocation : invocations ) {
+                invocation.run();
+            }
+        }
+
+        @Override
+        public final void run() {
+            runBatch(this);
+        }
+
+        final void discard(Throwable exception) {
+            for ( Invocation invocation : invocations ) {
+                invocation.cancel(exception);
+            }
+        }
+
+        @Override
+        public final void cancel(Throwable exception) {
+            discard(exception);
+            finished();
+        }
+
+        @Override
+        public int priority() {
+            return invocations[0].priority();
+        }
+
+        void invocationFinished(Invocation invocation) {
+        }
     }
 
     class ParallelSubmission extends Submission {
 
-        private final Invocation[] invocations;
-        private final ParallelEventCompletion<?> completion;
+        volatile int pending;
 
-        ParallelSubmission(Invocation[] invocations, ParallelEventCompletion<?> completion) {
-            this.invocations = invocations;
-            this.completion = completion;
+        ParallelSubmission(Invocation[] invocations) {
+            super(invocations);
+            pending = invocations.length;
         }
 
         @Override
-        public void submit() {
-            AtomicInteger counter = new AtomicInteger(invocations.length);
-            Arrays.stream(invocations).forEach(invocation -> {
-                try {
-                    executor.submit(() -> {
-                        try  {
-                            invocation.run();
-                        }
-                        finally {
-                            if ( counter.decrementAndGet() == 0 ) {
-                                finalizeSubmission(this);
-                            }
-                        }
-                    });
+        boolean isInline() {
+            // single invocations normally go to the executor as they are, unless there's
+            // a reason to run them as ordered task: batching or lane affinity
+            return invocations.length == 1 && (maxDrainBatch > 1 || lanes != null);
+        }
+
+        @Override
+        void submit() {
+            if ( invocations.length == 0 ) {
+                finished();
+            }
+            else if ( isInline() ) {
+                submitInline();
+            }
+            else {
+                for ( Invocation invocation : invocations ) {
+                    invocation.setSubmission(this);
+                    execute(invocation);
                 }
-                catch ( Throwable e ) {
-                    try {
-                        if ( counter.decrementAndGet() == 0 ) {
-                            finalizeSubmission(this);
-                        }
-                    }
-                    finally {
-                        completion.invocationComplete(invocation.getHandler(), e);
-                    }
+            }
+        }
+
+        @Override
+        void invocationFinished(Invocation invocation) {
+            if ( PENDING_UPDATER.decrementAndGet(this) == 0 ) {
+                finished();
+            }
+        }
+    }
+
+    class SequentialSubmission extends Submission {
+
+        SequentialSubmission(Invocation[] invocations) {
+            super(invocations);
+        }
+
+        @Override
+        boolean isInline() {
+            return true;
+        }
+
+        @Override
+        void submit() {
+            submitInline();
+        }
+    }
+
+    /**
+     * Collects the invocations of several events posted at once. Invocations of the same
+     * handler are grouped into one executor task that runs them in posting order.
+     */
+    final class Batch {
+
+        private final List<Invocation> ordered = new ArrayList<>();
+        private final Map<EventBus.Handler<?>, List<Invocation>> orderedGroups = new IdentityHashMap<>();
+        private final Map<EventBus.Handler<?>, List<Invocation>> asyncGroups = new IdentityHashMap<>();
+        /**
+         * Ordered submissions closed so far. Conflated events need a submission of
+         * their own, they split the ordered invocations into several submissions.
+         */
+        private final List<Submission> closed = new ArrayList<>();
+
+        private Batch() {
+        }
+
+        void add(long serial, EventBus eventBus, Object event, Subscription[] subscriptions, ParallelEventCompletion<?> completion, EventContext context) {
+            boolean async = !sequential && EventTypeInfo.of(event).async;
+            Object conflationKey = async ? null : EventTypeInfo.conflationKey(event);
+            Invocation[] conflatedInvocations = conflationKey == null ? null : new Invocation[subscriptions.length];
+            for ( int i = 0; i < subscriptions.length; i++ ) {
+                Subscription subscription = subscriptions[i];
+                completion.scheduleInvocation(subscription.handler);
+                Invocation invocation = new Invocation(serial, eventBus, event, subscription, completion, context, async, metrics);
+                if ( async ) {
+                    asyncGroups.computeIfAbsent(subscription.handler, h -> new ArrayList<>()).add(invocation);
+                }
+                else if ( conflatedInvocations != null ) {
+                    conflatedInvocations[i] = invocation;
+                }
+                else {
+                    ordered.add(invocation);
+                    orderedGroups.computeIfAbsent(subscription.handler, h -> new ArrayList<>()).add(invocation);
+                }
+            }
+            if ( conflatedInvocations != null ) {
+                closeOrdered();
+                closed.add(submission(conflatedInvocations, conflationKey));
+            }
+        }
+
+        private void closeOrdered() {
+            if ( ordered.isEmpty() ) {
+                return;
+            }
+            Invocation[][] groups;
+            if ( sequential ) {
+                groups = null;
+            }
+            else {
+                groups = orderedGroups.values().stream()
+                        .map(group -> group.toArray(new Invocation[group.size()]))
+                        .toArray(Invocation[][]::new);
+            }
+            closed.add(new BulkSubmission(ordered.toArray(new Invocation[ordered.size()]), groups));
+            ordered.clear();
+            orderedGroups.clear();
+        }
+
+        /**
+         * @return `false`, if the mailbox overflowed and the policy says that
+         *         `postAll()` should fail.
+         */
+        boolean submit() {
+            closeOrdered();
+            if ( !isActive() ) {
+                for ( Submission submission : closed ) {
+                    submission.discard(null);
                 }
-            });
+                asyncGroups.values().forEach(group -> group.forEach(invocation -> invocation.cancel(null)));
+                return true;
+            }
+            for ( List<Invocation> group : asyncGroups.values() ) {
+                new InvocationGroup(group.toArray(new Invocation[group.size()]), null).submit();
+            }
+            boolean accepted = true;
+            for ( Submission submission : closed ) {
+                if ( !enqueue(submission) ) {
+                    accepted = false;
+                }
+            }
+            return accepted;
         }
     }
 
-    class SequentialSubmission extends Submission implements Runnable {
+    /**
+     * Runs invocations one after the other on one thread.
+     */
+    final class InvocationGroup implements Runnable, Cancellable, Prioritized {
 
         private final Invocation[] invocations;
-        private final ParallelEventCompletion<?> completion;
+        private final Submission submission;
 
-        SequentialSubmission(Invocation[] invocations, ParallelEventCompletion<?> completion) {
+        InvocationGroup(Invocation[] invocations, Submission submission) {
             this.invocations = invocations;
-            this.completion = completion;
+            this.submission = submission;
+        }
+
+        void submit() {
+            try {
+                execute(this, runsOnCurrentThread(invocations));
+            }
+            catch ( Throwable e ) {
+                cancel(e);
+            }
+        }
+
+        @Override
+        public int priority() {
+            return invocations[0].priority();
+        }
+
+        @Override
+        public void cancel(Throwable exception) {
+            try {
+                for ( Invocation invocation : invocations ) {
+                    invocation.cancel(exception);
+                }
+            }
+            finally {
+                if ( submission != null ) {
+                    submission.invocationFinished(null);
+                }
+            }
         }
 
         @Override
         public void run() {
             try {
-                Arrays.stream(invocations).forEach(Runnable::run);
+                for ( Invocation invocation : invocations ) {
+                    invocation.run();
+                }
             }
             finally {
-                finalizeSubmission(this);
+                if ( submission != null ) {
+                    submission.invocationFinished(null);
+                }
             }
         }
+    }
+
+    /**
+     * The ordered part of a batch. For sequential subscribers, all invocations run in
+     * posting order on one thread. Otherwise, each handler gets its own task, handlers
+     * run in parallel, each of them seeing the events in posting order.
+     */
+    class BulkSubmission extends Submission {
+
+        private final Invocation[][] groups;
+        volatile int pending;
+
+        BulkSubmission(Invocation[] invocations, Invocation[][] groups) {
+            super(invocations);
+            this.groups = groups;
+            pending = groups == null ? 1 : groups.length;
+        }
+
+        @Override
+        boolean isInline() {
+            return groups == null || groups.length == 1;
+        }
 
         @Override
         void submit() {
-            try {
-                executor.submit(this);
+            if ( isInline() ) {
+                submitInline();
             }
-            catch ( Throwable e ) {
-                Arrays.stream(invocations).forEach(invocation -> completion.invocationComplete(invocation.getHandler(), e));
+            else {
+                for ( Invocation[] group : groups ) {
+                    new InvocationGroup(group, this).submit();
+                }
+            }
+        }
+
+        @Override
+        void invocationFinished(Invocation invocation) {
+            if ( BULK_PENDING_UPDATER.decrementAndGet(this) == 0 ) {
+                finished();
             }
         }
     }
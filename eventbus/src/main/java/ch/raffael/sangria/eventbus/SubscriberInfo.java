@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package ch.raffael.sangria.eventbus;
+
+import ch.raffael.sangria.libs.guava.reflect.TypeToken;
+
+import ch.raffael.sangria.dynamic.Reflection;
+
+import static ch.raffael.sangria.dynamic.Reflection.IterationMode.EXCLUDE_INTERFACES;
+
+
+/**
+ * What the event bus needs to know about a subscriber class, computed once per class.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class SubscriberInfo {
+
+    private static final ClassValue<SubscriberInfo> INFOS = new ClassValue<SubscriberInfo>() {
+        @Override
+        protected SubscriberInfo computeValue(Class<?> type) {
+            return new SubscriberInfo(type);
+        }
+    };
+
+    final boolean sequential;
+    final boolean hasSubscribeMethods;
+    /**
+     * The event type of {@link EventBus.Handler} implementations as declared by the
+     * class, `null` for other subscribers. It's checked on subscription, handlers
+     * subscribed with an explicit event type may well be generic.
+     */
+    final TypeToken<?> handlerEventType;
+
+    private SubscriberInfo(Class<?> type) {
+        sequential = type.getAnnotation(SequentialEventHandler.class) != null;
+        hasSubscribeMethods = Reflection.allMethods(type, EXCLUDE_INTERFACES).stream()
+                .filter(Reflection.Predicates.notOverridden())
+                .anyMatch(Reflection.Predicates.annotatedWith(Subscribe.class));
+        if ( EventBus.Handler.class.isAssignableFrom(type) ) {
+            handlerEventType = TypeToken.of(type).resolveType(EventBus.Handler.class.getTypeParameters()[0]);
+        }
+        else {
+            handlerEventType = null;
+        }
+    }
+
+    static SubscriberInfo of(Class<?> subscriberType) {
+        return INFOS.get(subscriberType);
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+
+import ch.raffael.sangria.logging.Logging;
+
+
+/**
+ * Identifies a subscriber object by identity without keeping it alive. Keys of the
+ * subscribers of a {@link ParallelEventBus} are enqueued when the object has been
+ * garbage collected. A daemon thread shared by all buses then removes the subscriber
+ * from its bus right away instead of waiting for the next post to notice.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class SubscriberKey extends WeakReference<Object> {
+
+    private static final Logger log = Logging.logger();
+
+    private static final ReferenceQueue<Object> COLLECTED = new ReferenceQueue<>();
+    private static final AtomicBoolean reaperStarted = new AtomicBoolean();
+
+    private final int hash;
+    /**
+     * `null` for lookup keys.
+     */
+    private final ParallelEventBus bus;
+
+    /**
+     * A key for lookups only, it's never enqueued.
+     */
+    SubscriberKey(Object subscriber) {
+        super(subscriber);
+        hash = System.identityHashCode(subscriber);
+        bus = null;
+    }
+
+    SubscriberKey(Object subscriber, ParallelEventBus bus) {
+        super(subscriber, COLLECTED);
+        hash = System.identityHashCode(subscriber);
+        this.bus = bus;
+    }
+
+    /**
+     * Start the thread removing collected subscribers, if it isn't running yet. Only
+     * weak subscribers can be collected while subscribed, so the thread is started on
+     * the first weak subscription.
+     */
+    static void startReaper() {
+        if ( reaperStarted.get() || !reaperStarted.compareAndSet(false, true) ) {
+            return;
+        }
+        Thread reaper = new Thread(SubscriberKey::reap, "EventBus-SubscriberReaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    private static void reap() {
+        while ( true ) {
+            try {
+                SubscriberKey key = (SubscriberKey)COLLECTED.remove();
+                if ( key.bus != null ) {
+                    key.bus.subscriberCollected(key);
+                }
+            }
+            catch ( InterruptedException e ) {
+                // nobody should interrupt us, keep going
+            }
+            catch ( Throwable e ) {
+                log.error("Error removing collected subscriber", e);
+            }
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if ( this == obj ) {
+            return true;
+        }
+        if ( !(obj instanceof SubscriberKey) ) {
+            return false;
+        }
+        SubscriberKey that = (SubscriberKey)obj;
+        if ( hash != that.hash ) {
+            return false;
+        }
+        Object subscriber = get();
+        // collected keys are only equal to themselves
+        return subscriber != null && subscriber == that.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriberKey{" + get() + "}";
+    }
+
+}
@@ -24,19 +24,36 @@
 
 package ch.raffael.sangria.eventbus
 
-import spock.lang.Ignore
+import ch.raffael.sangria.logging.MdcContext
+import org.slf4j.MDC
 import spock.lang.Specification
 
+import java.lang.reflect.Method
+import java.lang.reflect.Parameter
+import java.util.function.Supplier
+
 
 /**
- * @todo Injections have been removed, re-add them. (Search for "[INJECTIONS]")
- *
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
-@Ignore("Injections have been removed, re-add them. (Search for \"[INJECTIONS]\")")
 class HandlerSynthesizerSpec extends Specification {
 
     EventBus eventBus = Stub(EventBus)
+    def counter = 0
+    def synthesizer = new HandlerSynthesizer([
+            new ParameterResolver() {
+                @Override
+                Supplier<?> resolve(Method method, Parameter parameter) {
+                    if ( parameter.type == int ) {
+                        return new ParameterResolver.Constant(42)
+                    }
+                    else if ( parameter.type == String ) {
+                        return { "call ${++counter}".toString() } as Supplier
+                    }
+                    return null
+                }
+            }
+    ] as ParameterResolver[])
 
     def "Arguments: Event"() {
       given:
@@ -72,39 +89,56 @@ class HandlerSynthesizerSpec extends Specification {
         args == [ eventBus, e ]
     }
 
-//[INJECTIONS]
-//    def "Arguments: Event, Injector, Integer"() {
-//      given:
-//        def args
-//        def event = new Object()
-//
-//      when:
-//        synthesizer.handlers(new Object() {
-//            @Subscribe
-//            private void m(Object evt, Injector injector, @Named("myInt") Integer i) {
-//                args = [ evt, injector, i]
-//            }
-//        })[0].handler.handleEvent(eventBus, event)
-//
-//      then:
-//        args == [ event, injector, 42 ]
-//    }
-//
-//    def "Arguments: EventBus, Event, int"() {
-//      given:
-//        def args
-//        def event = new Object()
-//
-//      when:
-//        synthesizer.handlers(new Object() {
-//            @Subscribe
-//            private void m(EventBus bus, Object evt, @Named("myInt") int i) {
-//                args = [ bus, evt, i]
-//            }
-//        })[0].handler.handleEvent(eventBus, event)
-//
-//      then:
-//        args == [ eventBus, event, 42 ]
-//    }
+    def "Arguments: EventBus, Event, int, String"() {
+      given:
+        def args = []
+        def e = new Object()
+
+      when:
+        def handler = synthesizer.handlers(new Object() {
+            @Subscribe
+            private void m(EventBus bus, Object a, int i, String s) {
+                args << [ bus, a, i, s ]
+            }
+        })[0].handler
+        handler.handleEvent(eventBus, e)
+        handler.handleEvent(eventBus, e)
+
+      then:
+        args == [ [ eventBus, e, 42, 'call 1' ], [ eventBus, e, 42, 'call 2' ] ]
+    }
+
+    def "Arguments: Event, EventCompletion, MdcContext"() {
+      given:
+        def args
+        def e = new Object()
+        MDC.put('handler', 'yes')
+
+      when:
+        synthesizer.handlers(new Object() {
+            @Subscribe
+            private void m(Object a, EventCompletion<?> completion, MdcContext mdc) {
+                args = [ a, completion, mdc.toString() ]
+            }
+        })[0].handler.handleEvent(eventBus, e)
+
+      then:
+        args == [ e, null, 'MdcContext{handler=yes}' ]
+
+      cleanup:
+        MDC.clear()
+    }
+
+    def "Unresolvable arguments fail the subscription"() {
+      when:
+        synthesizer.handlers(new Object() {
+            @Subscribe
+            private void m(Object a, List<?> list) {
+            }
+        })
+
+      then:
+        thrown SubscriptionException
+    }
 
 }
@@ -24,13 +24,27 @@
 
 package ch.raffael.sangria.eventbus
 
+import org.slf4j.MDC
 import org.spockframework.runtime.ConditionNotSatisfiedError
 import spock.lang.AutoCleanup
 import spock.lang.FailsWith
 import spock.lang.Specification
 
+import javax.management.JMX
+import javax.management.ObjectName
+import java.lang.management.ManagementFactory
+import java.lang.ref.WeakReference
+import java.nio.file.Files
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeoutException
+import java.util.function.Supplier
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS
 import static java.util.concurrent.TimeUnit.SECONDS
 
 
@@ -75,7 +89,943 @@ class ParallelEventBusSpec extends Specification {
         recorder.empty
     }
 
+    def "The handlers of a subscriber class share one synthesized dispatcher"() {
+      given:
+        def synthesizer = new HandlerSynthesizer()
+        def rcv = new EventReceiver(recorder)
+        def event = new FooEvent()
+
+      when:
+        def handlers = synthesizer.handlers(rcv) + synthesizer.handlers(new EventReceiver(recorder))
+        handlers.find({ it.eventType == FooEvent }).handler.handleEvent(bus, event)
+
+      then:
+        handlers*.eventType as Set == [ AnEvent, FooEvent, BarEvent ] as Set
+        handlers*.handler*.compiled.unique(false).size() == 1
+        recorder.matcher {
+            expect(rcv, 'fooEvent', event)
+        }.all()
+        recorder.empty
+    }
+
+    def "Subscribing and unsubscribing after events have been posted updates the receivers"() {
+      given:
+        def rcvA = new EventReceiver(recorder)
+        def rcvB = new EventReceiver(recorder)
+        def events = [ new FooEvent(), new FooEvent(), new FooEvent() ]
+        bus.subscribe(rcvA)
+
+      when:
+        bus.post(events[0]).await(2, SECONDS)
+        bus.subscribe(rcvB)
+        bus.post(events[1]).await(2, SECONDS)
+        bus.unsubscribe(rcvA)
+        bus.post(events[2]).await(2, SECONDS)
+
+      then:
+        recorder.matcher {
+            expect(rcvA, 'anEvent', events[0])
+            expect(rcvA, 'fooEvent', events[0])
+        }.all()
+        recorder.matcher {
+            expect(rcvA, 'anEvent', events[1])
+            expect(rcvA, 'fooEvent', events[1])
+            expect(rcvB, 'anEvent', events[1])
+            expect(rcvB, 'fooEvent', events[1])
+        }.all()
+        recorder.matcher {
+            expect(rcvB, 'anEvent', events[2])
+            expect(rcvB, 'fooEvent', events[2])
+        }.all()
+        recorder.empty
+    }
+
+    def "Events posted concurrently from several threads keep their order per poster"() {
+      given:
+        bus.conf configuration
+        def received = [].asSynchronized()
+        def rcv = new Object() {
+            @Subscribe
+            void event(AnEvent evt) {
+                received << evt
+            }
+        }
+        bus.subscribe(rcv)
+        def posted = (0..<4).collect { [] }
+
+      when:
+        (0..<4).collect { t ->
+            Thread.start {
+                200.times {
+                    def evt = new AnEvent()
+                    posted[t] << evt
+                    bus.post(evt)
+                }
+            }
+        }*.join()
+        bus.post(new AnEvent()).await(5, SECONDS)
+
+      then:
+        received.size() == 801
+        posted.every { list -> received.findAll { it in list } == list }
+
+      where:
+        configuration << [
+                { maxDrainBatch 1 },
+                { maxDrainBatch 16 },
+                { workStealingLanes 4 },
+                { workStealingLanes 4; maxDrainBatch 16 } ]
+    }
+
+    def "postAll() delivers all events in order and completes when all of them have been handled"() {
+      given:
+        def rcvA = new EventReceiver(recorder)
+        def rcvB = new EventReceiver(recorder)
+        bus.subscribe(rcvA)
+        bus.subscribe(rcvB)
+        def events = (1..50).collect { it % 2 ? new FooEvent() : new BarEvent() }
+
+      when:
+        def completion = bus.postAll(events).await(5, SECONDS)
+
+      then:
+        completion.event == events
+        !completion.dead
+        completion.exceptions.empty
+        [ rcvA, rcvB ].every { rcv ->
+            recorder.calls.findAll { it.receiver.is(rcv) && it.method == 'anEvent' }*.event == events
+        }
+        [ rcvA, rcvB ].every { rcv ->
+            recorder.calls.findAll { it.receiver.is(rcv) && it.method == 'fooEvent' }*.event == events.findAll { it instanceof FooEvent }
+        }
+        recorder.calls.size() == 200
+    }
+
+    def "fire() delivers events without a completion and tells whether they're dead"() {
+      given:
+        def rcv = new EventReceiver(recorder)
+        bus.subscribe(rcv)
+        def events = [ new AnEvent(), new AnEvent() ]
+
+      when:
+        def fired = events.collect { bus.fire(it) }
+        def dead = bus.fire('dead')
+        bus.post(new AnEvent()).await(2, SECONDS)
+
+      then:
+        fired == [ true, true ]
+        !dead
+        recorder.calls*.event.take(2) == events
+    }
+
+    def "toCompletableFuture() completes when the event is complete"() {
+      given:
+        def barrier = new CyclicBarrier(2)
+        bus.subscribe(new EventReceiver(recorder).await(anEvent: barrier))
+        def event = new AnEvent()
+
+      when:
+        def future = bus.post(event).toCompletableFuture()
+        def chained = future.thenApply { it.event }
+        def others = (1..1000).collect { bus.post(new FooEvent()).toCompletableFuture() }
+
+      then:
+        !future.done
+        !chained.done
+
+      when:
+        1001.times { barrier.await(2, SECONDS) }
+
+      then:
+        chained.get(2, SECONDS).is(event)
+        CompletableFuture.allOf(others as CompletableFuture[]).thenApply({ others*.join()*.complete }).get(2, SECONDS).every()
+        bus.post('dead').await(2, SECONDS).toCompletableFuture().done
+    }
+
+    def "Waiters that timed out are removed from the completion"() {
+      given:
+        def barrier = new CyclicBarrier(2)
+        bus.subscribe(new EventReceiver(recorder).await(anEvent: barrier))
+        def completion = bus.post(new AnEvent())
+
+      when:
+        def timeouts = (1..100).count {
+            try {
+                completion.await(1, MILLISECONDS)
+                false
+            }
+            catch ( TimeoutException e ) {
+                true
+            }
+        }
+        def waiters = 0
+        for ( def node = completion.callbacks; node != null; node = node.next ) {
+            waiters++
+        }
+        barrier.await(2, SECONDS)
+
+      then:
+        timeouts == 100
+        waiters <= 1
+        completion.await(2, SECONDS).complete
+    }
+
+    def "postAll() without any receivers is dead"() {
+      when:
+        def completion = bus.postAll([ new AnEvent(), new AnEvent() ]).await(2, SECONDS)
+
+      then:
+        completion.dead
+    }
+
+    def "Custom executors deliver events"() {
+      given:
+        bus.conf configuration
+        def rcv = new EventReceiver(recorder)
+        bus.subscribe(rcv)
+        def events = [ new FooEvent(), new BarEvent() ]
+
+      when:
+        events.collect({ bus.post(it) })*.await(2, SECONDS)
+
+      then:
+        recorder.calls.size() == 4
+        recorder.calls.findAll { it.method == 'anEvent' }*.event == events
+
+      where:
+        configuration << [
+                { forkJoin() },
+                { forkJoin 1 },
+                { workStealingLanes 1 },
+                { workStealingLanes 3 },
+                { executor(Executors.newCachedThreadPool()) } ]
+    }
+
+    def "Child buses share the parent's workers, but have their own subscribers and lifecycle"() {
+      given:
+        bus.conf configuration
+        def parentRcv = new EventReceiver(recorder)
+        def childRcv = new EventReceiver(recorder)
+        bus.subscribe(parentRcv)
+        def child = bus.child('child')
+        def propagating = bus.child('propagating', true)
+        child.subscribe(childRcv)
+        propagating.subscribe(childRcv)
+
+      when:
+        def childEvent = new AnEvent()
+        def propagatedEvent = new AnEvent()
+        def childCompletion = child.post(childEvent).await(2, SECONDS)
+        def propagatedCompletion = propagating.post(propagatedEvent).await(2, SECONDS)
+
+      then:
+        childCompletion.complete
+        propagatedCompletion.complete
+        recorder.calls.findAll { it.event.is(childEvent) }*.receiver == [ childRcv ]
+        recorder.calls.findAll { it.event.is(propagatedEvent) }*.receiver as Set == [ childRcv, parentRcv ] as Set
+        child.post('dead').await(2, SECONDS).dead
+
+      when:
+        child.shutdown().await(2, SECONDS)
+
+      then:
+        child.state == EventBus.State.TERMINATED
+        bus.state == EventBus.State.READY
+        propagating.post(new AnEvent()).await(2, SECONDS).complete
+
+      when:
+        bus.shutdown().await(2, SECONDS)
+
+      then:
+        propagating.state == EventBus.State.TERMINATED
+
+      where:
+        configuration << [
+                { },
+                { workStealingLanes 2 } ]
+    }
+
+    def "Child buses terminate after their parent rejected their events"() {
+      given:
+        bus.conf {
+            fixedPoolSize 1
+            // don't grow the pool with the subscribers when the queue is full
+            maxPoolSize 1
+            executorQueueCapacity 1
+            overflowPolicy OverflowPolicy.FAIL
+        }
+        def latch = new CountDownLatch(1)
+        bus.subscribe(new Object() {
+            @Subscribe
+            void block(String evt) {
+                latch.await(2, SECONDS)
+            }
+        })
+        bus.subscribe(new EventReceiver(recorder))
+        def child = bus.child('child')
+        child.subscribe(new EventReceiver(recorder))
+
+      when: "the parent's worker is blocked and its queue is full"
+        def blocked = bus.post('block')
+        def queued = bus.post(new FooEvent())
+        def rejected = child.post(new AnEvent()).await(2, SECONDS)
+        latch.countDown()
+
+      then:
+        rejected.exceptions.any { it instanceof EventOverflowException }
+        blocked.await(2, SECONDS).complete
+        queued.await(2, SECONDS).complete
+        child.shutdown().await(2, SECONDS)
+        child.state == EventBus.State.TERMINATED
+
+      cleanup:
+        latch.countDown()
+    }
+
+    def "A full mailbox fails post(), drops the oldest event or the new one, depending on the overflow policy"() {
+      given:
+        bus.conf {
+            mailboxCapacity 1
+            overflowPolicy policy
+        }
+        def events = [ new AnEvent(), new AnEvent(), new AnEvent() ]
+        def barrier = new CyclicBarrier(2)
+        def rcv = new EventReceiver(recorder).await(anEvent: barrier)
+        bus.subscribe(rcv)
+        def cmpl = []
+        def overflow = null
+
+      when:
+        events.each {
+            try {
+                cmpl << bus.post(it)
+            }
+            catch ( EventOverflowException e ) {
+                overflow = e
+                cmpl << e.completion
+            }
+        }
+        2.times { barrier.await(2, SECONDS) }
+        cmpl*.await(2, SECONDS)
+
+      then:
+        recorder.calls*.event == events[delivered]
+        (overflow != null) == (policy == OverflowPolicy.FAIL)
+        cmpl.findIndexValues({ it.exceptions.any { it instanceof EventOverflowException } }) == failed
+
+      where:
+        policy                        | delivered | failed
+        OverflowPolicy.FAIL           | [ 0, 1 ]  | [ 2 ]
+        OverflowPolicy.DROP_OLDEST    | [ 0, 2 ]  | [ 1 ]
+        OverflowPolicy.OVERFLOW_EVENT | [ 0, 1 ]  | [ 2 ]
+    }
+
+    def "Posters on threads of the common pool block on a full mailbox"() {
+      given:
+        bus.conf {
+            mailboxCapacity 1
+            overflowPolicy OverflowPolicy.BLOCK
+        }
+        def barrier = new CyclicBarrier(2)
+        def rcv = new EventReceiver(recorder).await(anEvent: barrier)
+        bus.subscribe(rcv)
+        def posted = new CountDownLatch(2)
+        def cmpl = [].asSynchronized()
+
+      when:
+        def poster = ForkJoinPool.commonPool().submit({
+            3.times {
+                cmpl << bus.post(new AnEvent())
+                posted.countDown()
+            }
+        } as Runnable)
+        posted.await(2, SECONDS)
+        Thread.sleep(200)
+
+      then:
+        !poster.done
+
+      when:
+        3.times { barrier.await(2, SECONDS) }
+        poster.get(2, SECONDS)
+        cmpl*.await(2, SECONDS)
+
+      then:
+        recorder.calls.size() == 3
+    }
+
+    def "jmx() registers an MXBean with counters and latencies until shutdown"() {
+      given:
+        bus.conf {
+            named 'ParallelEventBusSpec.jmx'
+            jmx()
+        }
+        bus.subscribe(new EventReceiver(recorder))
+        def server = ManagementFactory.platformMBeanServer
+        def names = { server.queryNames(new ObjectName('ch.raffael.sangria.eventbus:type=ParallelEventBus,name="ParallelEventBusSpec.jmx",*'), null) }
+
+      when:
+        [ new AnEvent(), new FooEvent(), 'dead' ].collect({ bus.post(it) })*.await(2, SECONDS)
+        def mbean = JMX.newMXBeanProxy(server, names().first(), ParallelEventBusMXBean)
+
+      then:
+        mbean.postedEvents == 3
+        mbean.deadEvents == 1
+        mbean.invocations == 3
+        mbean.failedInvocations == 0
+        mbean.subscriberCount == 1
+        mbean.handlerLatencies.keySet() == [ AnEvent.name, FooEvent.name ] as Set
+        mbean.handlerLatencies[FooEvent.name].count == 2
+        mbean.queueWaitLatencies[AnEvent.name].count == 1
+
+      when:
+        bus.shutdown().await()
+
+      then:
+        names().empty
+    }
+
+    def "Shutting down a bus unregisters the MXBeans of its children"() {
+      given:
+        bus.conf {
+            named 'ParallelEventBusSpec.jmxChildren'
+            jmx()
+        }
+        def server = ManagementFactory.platformMBeanServer
+        def names = { server.queryNames(new ObjectName('ch.raffael.sangria.eventbus:type=ParallelEventBus,name="ParallelEventBusSpec.jmxChildren*",*'), null) }
+
+      when:
+        def child = bus.child('child')
+        def grandchild = child.child('grandchild')
+
+      then:
+        names().size() == 3
+
+      when:
+        bus.shutdown().await(2, SECONDS)
+
+      then:
+        names().empty
+        child.state == EventBus.State.TERMINATED
+        grandchild.state == EventBus.State.TERMINATED
+    }
+
+    def "Profiled handlers report slow invocations and the slowest handlers"() {
+      given:
+        bus.conf {
+            named 'ParallelEventBusSpec.profile'
+            jmx()
+            slowHandlerThreshold 50, MILLISECONDS
+        }
+        def slow = new LinkedBlockingQueue<SlowHandlerEvent>()
+        def rcv = new EventReceiver(recorder).await(anEvent: new Expando(await: { sleep 100 }))
+        bus.subscribe(rcv)
+        def slowRcv = new Object() {
+            @Subscribe
+            void slowHandler(SlowHandlerEvent evt) {
+                slow << evt
+            }
+        }
+        bus.subscribe(slowRcv)
+        def event = new FooEvent()
+
+      when:
+        bus.post(event).await(2, SECONDS)
+        def slowEvent = slow.poll(2, SECONDS)
+        def server = ManagementFactory.platformMBeanServer
+        def mbean = JMX.newMXBeanProxy(server,
+                server.queryNames(new ObjectName('ch.raffael.sangria.eventbus:type=ParallelEventBus,name="ParallelEventBusSpec.profile",*'), null).first(),
+                ParallelEventBusMXBean)
+        def slowest = mbean.getSlowestHandlers(10)
+
+      then:
+        slowEvent.handler == EventReceiver.name + '#anEvent(AnEvent)'
+        slowEvent.event.is(event)
+        slowEvent.getTime(MILLISECONDS) >= 50
+        slow.empty
+        slowest[0].handler == EventReceiver.name + '#anEvent(AnEvent)'
+        // all subscribed handlers are profiled, the order of the fast ones depends on timing
+        slowest*.handler as Set == [ EventReceiver.name + '#anEvent(AnEvent)',
+                                     EventReceiver.name + '#fooEvent(FooEvent)',
+                                     EventReceiver.name + '#barEvent(BarEvent)',
+                                     slowRcv.getClass().name + '#slowHandler(SlowHandlerEvent)' ] as Set
+        slowest[0].invocations == 1
+        slowest[0].maxTime >= MILLISECONDS.toNanos(50)
+    }
+
+    def "Events complete even if reporting their slow handlers fails"() {
+      given:
+        bus.conf {
+            named 'ParallelEventBusSpec.slowOverflow'
+            jmx()
+            fixedPoolSize 4
+            slowHandlerThreshold 1, MILLISECONDS
+            mailboxCapacity 1
+            overflowPolicy OverflowPolicy.FAIL
+        }
+        def release = new CountDownLatch(1)
+        // sequential handlers receive SlowHandlerEvents through their mailbox
+        bus.subscribe(new SequentialSlowHandlerReceiver(release: release))
+        bus.subscribe(new Object() {
+            @Subscribe
+            void slow(SlowEvent evt) {
+                sleep 5
+            }
+        })
+
+      when: "the first report blocks the reporting subscriber, the second one fills its mailbox"
+        bus.post(new SlowEvent()).await(2, SECONDS)
+        bus.post(new SlowEvent()).await(2, SECONDS)
+        def overflowed = bus.post(new SlowEvent()).await(2, SECONDS)
+
+      then:
+        overflowed.complete
+
+      cleanup:
+        release.countDown()
+    }
+
+    def "prioritized() dispatches events with higher priority first"() {
+      given:
+        bus.conf {
+            fixedPoolSize 1
+            prioritized()
+        }
+        def order = [].asSynchronized()
+        def latch = new CountDownLatch(1)
+        bus.subscribe(new Object() {
+            @Subscribe
+            void block(String evt) {
+                latch.await(2, SECONDS)
+            }
+        })
+        // one subscriber per event, a subscriber's own events are always handled in order
+        bus.subscribe(new Object() {
+            @Subscribe
+            void low(LowPriorityEvent evt) {
+                order << 'low'
+            }
+        })
+        bus.subscribe(new Object() {
+            @Subscribe
+            void high(HighPriorityEvent evt) {
+                order << 'high'
+            }
+        })
+        bus.subscribe(new Object() {
+            @Subscribe
+            void normal(AnEvent evt) {
+                order << 'normal'
+            }
+        })
+
+      when:
+        def cmpl = [ bus.post('block') ]
+        cmpl << bus.post(new LowPriorityEvent())
+        cmpl << bus.post(new AnEvent())
+        cmpl << bus.post(new HighPriorityEvent())
+        latch.countDown()
+        cmpl*.await(2, SECONDS)
+
+      then:
+        order == [ 'high', 'normal', 'low' ]
+    }
+
+    def "prioritized() drops the lowest priority from a full executor queue"() {
+      given:
+        bus.conf {
+            fixedPoolSize 1
+            // don't grow the pool with the subscribers when the queue is full
+            maxPoolSize 1
+            prioritized()
+            executorQueueCapacity 2
+            overflowPolicy OverflowPolicy.DROP_OLDEST
+        }
+        def order = [].asSynchronized()
+        def latch = new CountDownLatch(1)
+        bus.subscribe(new Object() {
+            @Subscribe
+            void block(String evt) {
+                latch.await(2, SECONDS)
+            }
+        })
+        bus.subscribe(new Object() {
+            @Subscribe
+            void high(HighPriorityEvent evt) {
+                order << 'high'
+            }
+        })
+        bus.subscribe(new Object() {
+            @Subscribe
+            void low(LowPriorityEvent evt) {
+                order << 'low'
+            }
+        })
+        bus.subscribe(new Object() {
+            @Subscribe
+            void normal(AnEvent evt) {
+                order << 'normal'
+            }
+        })
+
+      when:
+        def cmpl = [ bus.post('block') ]
+        cmpl << bus.post(new HighPriorityEvent())
+        cmpl << bus.post(new LowPriorityEvent())
+        cmpl << bus.post(new AnEvent())
+        latch.countDown()
+        cmpl*.await(2, SECONDS)
+
+      then:
+        order == [ 'high', 'normal' ]
+        cmpl.findIndexValues({ it.exceptions.any { it instanceof EventOverflowException } }) == [ 2 ]
+    }
+
+    def "Conflated events replace queued events with the same key"() {
+      given:
+        bus.conf { mailboxCapacity 2 }
+        def received = [].asSynchronized()
+        def latch = [ new CountDownLatch(1) ]
+        bus.subscribe(new Object() {
+            @Subscribe
+            void price(PriceEvent evt) {
+                latch[0].await(2, SECONDS)
+                received << evt
+            }
+        })
+        def events = [ new PriceEvent('a', 1), new PriceEvent('a', 2), new PriceEvent('b', 1), new PriceEvent('a', 3) ]
+
+      when:
+        def cmpl = events.collect { bus.post(it) }
+        latch[0].countDown()
+        cmpl*.await(2, SECONDS)
+
+      then:
+        received == [ events[0], events[2], events[3] ]
+        cmpl*.supersededInvocations == [ 0, 1, 0, 0 ]
+        cmpl.every { it.complete && it.exceptions.empty }
+
+      when:
+        // completions complete before the submission leaves the mailbox, a queued
+        // first event would be superseded, too
+        sleep 100
+        latch[0] = new CountDownLatch(1)
+        def all = bus.postAll(events)
+        latch[0].countDown()
+        all.await(2, SECONDS)
+
+      then:
+        all.supersededInvocations == 1
+        received.drop(3) == [ events[0], events[2], events[3] ]
+    }
+
+    def "Durable events that didn't complete are replayed from the journal"() {
+      given:
+        def dir = Files.createTempDirectory('journal')
+        def crashed = new TestEventBus()
+        crashed.conf { journal dir }
+        def latch = new CountDownLatch(1)
+        crashed.subscribe(new Object() {
+            @Subscribe
+            void durable(DurableEvent evt) {
+                if ( evt.name == 'pending' ) {
+                    latch.await(2, SECONDS)
+                }
+            }
+        })
+        def replayed = [].asSynchronized()
+
+      when:
+        crashed.post(new DurableEvent('complete')).await(2, SECONDS)
+        crashed.post(new DurableEvent('pending'))
+        def restarted = new TestEventBus()
+        restarted.conf { journal dir }
+        restarted.subscribe(new Object() {
+            @Subscribe
+            void durable(DurableEvent evt) {
+                replayed << evt.name
+            }
+        })
+        def replay = restarted.replayJournal().await(2, SECONDS)
+
+      then:
+        replay.event*.name == [ 'pending' ]
+        replayed == [ 'pending' ]
+        restarted.replayJournal().event.empty
+
+      when:
+        restarted.shutdown().await(2, SECONDS)
+        def next = new TestEventBus()
+        next.conf { journal dir }
+
+      then:
+        next.replayJournal().event.empty
+
+      cleanup:
+        latch.countDown()
+        // close the journals before deleting them
+        crashed.shutdownNow().await(2, SECONDS)
+        restarted?.shutdownNow()?.await(2, SECONDS)
+        next?.shutdownNow()?.await(2, SECONDS)
+        dir.toFile().deleteDir()
+    }
+
+    def "Bridges forward events through a memory-mapped ring buffer in order"() {
+      given:
+        def file = Files.createTempFile('bridge', '.ring')
+        def target = new TestEventBus()
+        def received = new LinkedBlockingQueue()
+        target.subscribe(new Object() {
+            @Subscribe
+            void bridged(BridgedEvent evt) {
+                received.add(evt.sequence)
+            }
+        })
+        def outbound = EventBridge.outbound(bus, file, 4096, JavaEventSerializer.INSTANCE, BridgedEvent)
+        def inbound = EventBridge.inbound(target, file, 4096, JavaEventSerializer.INSTANCE)
+
+      when:
+        def posted = (1..1000).collect { bus.post(new BridgedEvent(it)) }
+        def notBridged = bus.post(new AnEvent()).await(2, SECONDS)
+        def sequences = (1..1000).collect { received.poll(5, SECONDS) }
+
+      then:
+        posted.every { it.await(2, SECONDS).complete }
+        notBridged.dead
+        sequences == (1..1000).toList()
+
+      cleanup:
+        outbound?.close()
+        inbound?.close()
+        target.shutdownNow()
+        Files.deleteIfExists(file)
+    }
+
+    def "Inbound bridges skip events the target bus rejects and keep reading"() {
+      given:
+        def file = Files.createTempFile('bridge', '.ring')
+        def received = new LinkedBlockingQueue()
+        def target = [ fire: { evt ->
+            if ( evt.sequence == 1 ) {
+                throw new EventOverflowException('Rejected by the test')
+            }
+            received.add(evt.sequence)
+            true
+        } ] as EventBus
+        def outbound = EventBridge.outbound(bus, file, 4096, JavaEventSerializer.INSTANCE, BridgedEvent)
+        def inbound = EventBridge.inbound(target, file, 4096, JavaEventSerializer.INSTANCE)
+
+      when:
+        (1..3).collect { bus.post(new BridgedEvent(it)) }*.await(2, SECONDS)
+        def sequences = (2..3).collect { received.poll(5, SECONDS) }
+
+      then:
+        sequences == [ 2, 3 ]
+
+      cleanup:
+        outbound?.close()
+        inbound?.close()
+        Files.deleteIfExists(file)
+    }
+
+    def "Bridges without a reader drop events beyond their outbox and close promptly"() {
+      given:
+        def file = Files.createTempFile('bridge', '.ring')
+        def outbound = EventBridge.outbound(bus, file, 4096, 10, JavaEventSerializer.INSTANCE, BridgedEvent)
+
+      when:
+        (1..1000).collect { bus.post(new BridgedEvent(it)) }*.await(2, SECONDS)
+        def start = System.nanoTime()
+        outbound.close()
+        def closeNanos = System.nanoTime() - start
+
+      then:
+        outbound.droppedEvents > 0
+        closeNanos < SECONDS.toNanos(1)
+
+      cleanup:
+        Files.deleteIfExists(file)
+    }
+
     //@Unroll
+    def "The MDC is propagated to the handlers and traces link events posted by handlers"() {
+      given:
+        bus.conf {
+            named 'ParallelEventBusSpec.trace'
+            jmx()
+            propagateMdc()
+            traceSampling 1, 16
+        }
+        def mdc = new LinkedBlockingQueue<String>()
+        def childCompletion = new CompletableFuture<EventCompletion>()
+        bus.subscribe(new Object() {
+            @Subscribe
+            void traced(TracedEvent evt) {
+                mdc << MDC.get('request')
+                MDC.put('request', 'changed')
+                childCompletion.complete(bus.post(new TracedChildEvent()))
+            }
+            @Subscribe
+            void child(TracedChildEvent evt) {
+                mdc << MDC.get('request')
+            }
+        })
+
+      when:
+        MDC.put('request', '42')
+        try {
+            bus.post(new TracedEvent()).await(2, SECONDS)
+        }
+        finally {
+            MDC.remove('request')
+        }
+        childCompletion.get(2, SECONDS).await(2, SECONDS)
+        def server = ManagementFactory.platformMBeanServer
+        def mbean = JMX.newMXBeanProxy(server,
+                server.queryNames(new ObjectName('ch.raffael.sangria.eventbus:type=ParallelEventBus,name="ParallelEventBusSpec.trace",*'), null).first(),
+                ParallelEventBusMXBean)
+        def traces = mbean.recentTraces
+        def parent = traces.find { it.eventType == TracedEvent.name }
+        def child = traces.find { it.eventType == TracedChildEvent.name }
+
+      then:
+        mdc.poll(2, SECONDS) == '42'
+        mdc.poll(2, SECONDS) == 'changed'
+        parent.parentId == 0
+        parent.handler.endsWith('#traced(TracedEvent)')
+        !parent.failed
+        child.parentId == parent.traceId
+        child.handler.endsWith('#child(TracedChildEvent)')
+    }
+
+    def "Weak subscribers are removed as soon as they have been garbage collected"() {
+      given:
+        bus.conf {
+            named 'ParallelEventBusSpec.weak'
+            jmx()
+        }
+        def received = new LinkedBlockingQueue<WeakEvent>()
+        def subscriber = new WeakSubscriber(received: received)
+        bus.subscribeWeakly(subscriber)
+        bus.subscribe(new WeakSubscriber(received: new LinkedBlockingQueue()))
+        def server = ManagementFactory.platformMBeanServer
+        def mbean = JMX.newMXBeanProxy(server,
+                server.queryNames(new ObjectName('ch.raffael.sangria.eventbus:type=ParallelEventBus,name="ParallelEventBusSpec.weak",*'), null).first(),
+                ParallelEventBusMXBean)
+        bus.post(new WeakEvent()).await(2, SECONDS)
+
+      when:
+        def before = mbean.subscriberCount
+        subscriber = null
+        def deadline = System.currentTimeMillis() + 5000
+        while ( mbean.subscriberCount > 1 && System.currentTimeMillis() < deadline ) {
+            System.gc()
+            sleep 10
+        }
+
+      then:
+        received.size() == 1
+        before == 2
+        mbean.subscriberCount == 1
+    }
+
+    def "Handler methods get the event's completion and per-thread instances injected"() {
+      given:
+        bus.conf {
+            injectPerThread StringBuilder, { new StringBuilder() } as Supplier
+        }
+        def received = new LinkedBlockingQueue()
+        bus.subscribe(new Object() {
+            @Subscribe
+            void injected(InjectedEvent evt, EventCompletion<?> completion, StringBuilder scratch) {
+                received << [ completion, scratch, Thread.currentThread() ]
+            }
+        })
+
+      when:
+        def completions = (1..10).collect { bus.post(new InjectedEvent()) }
+        completions*.await(2, SECONDS)
+        def invocations = (1..10).collect { received.poll(2, SECONDS) }
+
+      then:
+        invocations*.get(0) == completions
+        invocations.every { it[1] instanceof StringBuilder }
+        invocations.groupBy({ it[2] }).values().every { it*.get(1).unique(false).size() == 1 }
+    }
+
+    def "inline() runs the handlers on the posting thread in order, events posted by a handler are queued"() {
+      given:
+        bus.conf {
+            inline()
+        }
+        def log = []
+        bus.subscribe(new Object() {
+            @Subscribe
+            void inline(InlineEvent evt) {
+                log << [ evt.id, Thread.currentThread() ]
+                if ( evt.id == 1 ) {
+                    log << [ 'nested complete', bus.post(new InlineEvent(id: 2)).complete ]
+                }
+            }
+        })
+
+      when:
+        def completion = bus.post(new InlineEvent(id: 1))
+
+      then:
+        completion.complete
+        log == [ [ 1, Thread.currentThread() ], [ 'nested complete', false ], [ 2, Thread.currentThread() ] ]
+    }
+
+    def "inlineCheapHandlers() runs cheap handlers on the posting thread and offloads the others"() {
+      given:
+        bus.conf {
+            inlineCheapHandlers()
+        }
+        def threads = new LinkedBlockingQueue()
+        bus.subscribe(new Object() {
+            @Subscribe(cheap = true)
+            void cheap(InlineEvent evt) {
+                threads << Thread.currentThread()
+            }
+            @Subscribe
+            void offloaded(OffloadedEvent evt) {
+                threads << Thread.currentThread()
+            }
+        })
+
+      when:
+        def cheapComplete = bus.post(new InlineEvent()).complete
+        bus.post(new OffloadedEvent()).await(2, SECONDS)
+
+      then:
+        cheapComplete
+        threads.poll(2, SECONDS) == Thread.currentThread()
+        threads.poll(2, SECONDS) != Thread.currentThread()
+    }
+
+    def "A bus that has been shut down can be garbage collected"() {
+      given:
+        def builder = new EventBusBuilder().named('ParallelEventBusSpec.collected')
+        def collectable = builder.build()
+        collectable.subscribe(new WeakSubscriber(received: new LinkedBlockingQueue()))
+        collectable.post(new WeakEvent()).await(2, SECONDS)
+        collectable.child('child').post(new WeakEvent()).await(2, SECONDS)
+        collectable.shutdown().await(2, SECONDS)
+        def reference = new WeakReference(collectable)
+
+      when:
+        collectable = null
+        def deadline = System.currentTimeMillis() + 5000
+        while ( reference.get() != null && System.currentTimeMillis() < deadline ) {
+            System.gc()
+            sleep 10
+        }
+
+      then:
+        reference.get() == null
+    }
+
     def "Events are sent in parallel to different subscribers, but queued for the same subscriber"() {
       given:
         bus.conf {
@@ -138,4 +1088,79 @@ class ParallelEventBusSpec extends Specification {
         }.all()
     }
 
+    static class PriceEvent implements Conflatable {
+        final String instrument
+        final int price
+        PriceEvent(String instrument, int price) {
+            this.instrument = instrument
+            this.price = price
+        }
+        @Override
+        Object conflationKey() {
+            instrument
+        }
+    }
+
+    @Event(durable = true)
+    static class DurableEvent implements Serializable {
+        final String name
+        DurableEvent(String name) {
+            this.name = name
+        }
+    }
+
+    static class BridgedEvent implements Serializable {
+        final int sequence
+        BridgedEvent(int sequence) {
+            this.sequence = sequence
+        }
+    }
+
+    static class WeakSubscriber {
+        def received
+        @Subscribe
+        void weakEvent(WeakEvent evt) {
+            received << evt
+        }
+    }
+
+    static class WeakEvent {
+    }
+
+    static class InjectedEvent {
+    }
+
+    static class InlineEvent {
+        int id
+    }
+
+    static class OffloadedEvent {
+    }
+
+    static class TracedEvent {
+    }
+
+    static class TracedChildEvent {
+    }
+
+    @Event(priority = -1)
+    static class LowPriorityEvent {
+    }
+
+    @Event(priority = 1)
+    static class HighPriorityEvent {
+    }
+
+    static class SlowEvent {
+    }
+
+    @SequentialEventHandler
+    static class SequentialSlowHandlerReceiver {
+        CountDownLatch release
+        @Subscribe
+        void slowHandler(SlowHandlerEvent evt) {
+            release.await(5, SECONDS)
+        }
+    }
+
 }
@@ -0,0 +1,177 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.eventbus
+
+import org.slf4j.Logger
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+
+import javax.tools.DiagnosticCollector
+import javax.tools.ToolProvider
+import java.nio.file.Files
+import java.nio.file.Path
+
+import static java.util.concurrent.TimeUnit.SECONDS
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class SubscribeProcessorSpec extends Specification {
+
+    @AutoCleanup
+    def bus = new TestEventBus()
+
+    private final List<Path> compileDirs = []
+
+    def cleanup() {
+        compileDirs.each { it.toFile().deleteDir() }
+    }
+
+    def "Handlers generated at compile time are used instead of synthesized ones"() {
+      given:
+        def loader = compile('gen.Receiver': '''
+            package gen;
+            import java.util.List;
+            import java.util.concurrent.CopyOnWriteArrayList;
+            import ch.raffael.sangria.eventbus.EventBus;
+            import ch.raffael.sangria.eventbus.Subscribe;
+            public class Receiver {
+                public final List<Object> received = new CopyOnWriteArrayList<>();
+                @Subscribe
+                void string(String event) {
+                    received.add(event);
+                }
+                @Subscribe
+                public void integer(EventBus eventBus, Integer event) throws Exception {
+                    received.add(eventBus != null ? event : null);
+                }
+            }''')
+        def receiverClass = loader.loadClass('gen.Receiver')
+        def receiver = receiverClass.newInstance()
+
+      when:
+        bus.subscribe(receiver)
+        bus.post('foo').await(2, SECONDS)
+        bus.post(42).await(2, SECONDS)
+
+      then:
+        loader.loadClass('gen.Receiver$$EventHandlers')
+        CompiledHandlers.of(receiverClass) != null
+        receiver.received == [ 'foo', 42 ]
+    }
+
+    def "Compiled and synthesized handlers of overloaded methods have the same distinct names"() {
+      given:
+        def loader = compile('gen.Overloads': '''
+            package gen;
+            import ch.raffael.sangria.eventbus.EventBus;
+            import ch.raffael.sangria.eventbus.Subscribe;
+            public class Overloads {
+                @Subscribe
+                void on(String event) {
+                }
+                @Subscribe
+                void on(EventBus eventBus, Integer event) {
+                }
+            }''')
+        def receiver = loader.loadClass('gen.Overloads').newInstance()
+
+      when:
+        def compiled = CompiledHandlers.of(receiver.getClass()).handlers(receiver)*.name
+        def synthesized = new HandlerSynthesizer().handlers(receiver)*.name
+
+      then:
+        compiled as Set == [ 'gen.Overloads#on(String)', 'gen.Overloads#on(EventBus, Integer)' ] as Set
+        synthesized as Set == compiled as Set
+    }
+
+    def "Classes the generated code can't access are left to runtime synthesis"() {
+      given:
+        def loader = compile('gen.Private': '''
+            package gen;
+            import java.util.List;
+            import java.util.concurrent.CopyOnWriteArrayList;
+            import ch.raffael.sangria.eventbus.Subscribe;
+            public class Private {
+                public final List<Object> received = new CopyOnWriteArrayList<>();
+                @Subscribe
+                private void string(String event) {
+                    received.add(event);
+                }
+            }''')
+        def receiverClass = loader.loadClass('gen.Private')
+        def receiver = receiverClass.newInstance()
+
+      when:
+        bus.subscribe(receiver)
+        bus.post('foo').await(2, SECONDS)
+
+      then:
+        CompiledHandlers.of(receiverClass) == null
+        receiver.received == [ 'foo' ]
+    }
+
+    def "Handler methods without event argument are a compile error"() {
+      when:
+        compile('gen.Broken': '''
+            package gen;
+            import ch.raffael.sangria.eventbus.Subscribe;
+            public class Broken {
+                @Subscribe
+                void nothing() {
+                }
+            }''')
+
+      then:
+        def e = thrown(AssertionError)
+        e.message.contains('No event argument')
+    }
+
+    private ClassLoader compile(Map<String, String> sources) {
+        Path dir = Files.createTempDirectory('SubscribeProcessorSpec')
+        compileDirs << dir
+        def files = sources.collect { name, source ->
+            def file = dir.resolve(name.replace('.', '/') + '.java')
+            Files.createDirectories(file.parent)
+            file.toFile().text = source
+            file.toFile()
+        }
+        def classes = Files.createDirectories(dir.resolve('classes'))
+        def classPath = ([ EventBus, Logger ].collect { new File(it.protectionDomain.codeSource.location.toURI()).path }
+                + System.getProperty('java.class.path')).join(File.pathSeparator)
+        def compiler = ToolProvider.systemJavaCompiler
+        def diagnostics = new DiagnosticCollector()
+        def fileManager = compiler.getStandardFileManager(diagnostics, null, null)
+        def ok = compiler.getTask(null, fileManager, diagnostics,
+                [ '-d', classes.toString(), '-classpath', classPath, '-processor', SubscribeProcessor.name ],
+                null, fileManager.getJavaFileObjectsFromFiles(files)).call()
+        fileManager.close()
+        assert ok, diagnostics.diagnostics.join('\n')
+        new URLClassLoader([ classes.toUri().toURL() ] as URL[], getClass().classLoader)
+    }
+
+}
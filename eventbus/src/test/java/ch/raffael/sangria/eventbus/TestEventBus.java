@@ -24,6 +24,8 @@
 
 package ch.raffael.sangria.eventbus;
 
+import java.util.List;
+
 import groovy.lang.Closure;
 import groovy.lang.DelegatesTo;
 
@@ -64,6 +66,36 @@ public class TestEventBus implements EventBus {
         return delegate().post(event);
     }
 
+    @Override
+    public <E> EventCompletion<List<E>> postAll(Iterable<? extends E> events) {
+        return delegate().postAll(events);
+    }
+
+    @Override
+    public boolean fire(Object event) {
+        return delegate().fire(event);
+    }
+
+    @Override
+    public EventCompletion<List<Object>> replayJournal() {
+        return delegate().replayJournal();
+    }
+
+    @Override
+    public <T> void subscribe(Class<T> eventType, Handler<? super T> handler) {
+        delegate().subscribe(eventType, handler);
+    }
+
+    @Override
+    public EventBus child(String name) {
+        return delegate().child(name);
+    }
+
+    @Override
+    public EventBus child(String name, boolean propagate) {
+        return delegate().child(name, propagate);
+    }
+
     @Override
     public void subscribe(Object object) {
         delegate().subscribe(object);
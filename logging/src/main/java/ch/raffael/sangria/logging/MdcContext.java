@@ -0,0 +1,90 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Raffael Herzog
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package ch.raffael.sangria.logging;
+
+import java.util.Map;
+
+import org.slf4j.MDC;
+
+
+/**
+ * A snapshot of the {@link MDC} of one thread that can be applied to another, e.g. to
+ * keep the MDC of a request when handing work over to a thread pool.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public final class MdcContext {
+
+    private static final MdcContext EMPTY = new MdcContext(null);
+
+    private final Map<String, String> contextMap;
+
+    private MdcContext(Map<String, String> contextMap) {
+        this.contextMap = contextMap;
+    }
+
+    /**
+     * Take a snapshot of the current thread's MDC.
+     */
+    public static MdcContext capture() {
+        Map<String, String> contextMap = MDC.getCopyOfContextMap();
+        return contextMap == null || contextMap.isEmpty() ? EMPTY : new MdcContext(contextMap);
+    }
+
+    public boolean isEmpty() {
+        return contextMap == null;
+    }
+
+    /**
+     * Replace the current thread's MDC with this snapshot until the returned scope is
+     * closed, which restores the previous MDC.
+     */
+    public Scope apply() {
+        Map<String, String> previous = MDC.getCopyOfContextMap();
+        set(contextMap);
+        return () -> set(previous);
+    }
+
+    private static void set(Map<String, String> contextMap) {
+        if ( contextMap == null ) {
+            MDC.clear();
+        }
+        else {
+            MDC.setContextMap(contextMap);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MdcContext" + (contextMap == null ? "{}" : contextMap);
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+}